@@ -0,0 +1,132 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Underscore-quoted JSON shaped like what an InfinityDB server sends, for
+ * the benchmarks. Each shape stresses a different part of the parser and
+ * writer. They are deterministic, so runs can be compared.
+ */
+class BenchmarkPayloads {
+    static final String[] SHAPES = {"small", "deep", "list", "bytes", "dates", "escaped"};
+
+    static String get(String shape) {
+        switch (shape) {
+        case "small": return small();
+        case "deep": return deep();
+        case "list": return list();
+        case "bytes": return bytes();
+        case "dates": return dates();
+        case "escaped": return escaped();
+        default: throw new IllegalArgumentException("Unknown payload shape: " + shape);
+        }
+    }
+
+    // One entity with a handful of attributes, like a typical get.
+    static String small() {
+        return "{ \"_Person\" : { \"Alice\" : { "
+                + "\"_age\" : \"_42\", "
+                + "\"_height\" : \"_1.68\", "
+                + "\"_email\" : \"alice@example.com\", "
+                + "\"_manager\" : \"Bob\" } } }";
+    }
+
+    // A tree with a fan-out of 3 and a depth of 6: 729 tips.
+    static String deep() {
+        StringBuilder sb = new StringBuilder();
+        deep(sb, 6);
+        return sb.toString();
+    }
+
+    private static void deep(StringBuilder sb, int depth) {
+        if (depth == 0) {
+            sb.append("\"leaf\"");
+            return;
+        }
+        sb.append("{ ");
+        for (int i = 0; i < 3; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append("\"_level").append(depth).append('_').append(i).append("\" : ");
+            deep(sb, depth - 1);
+        }
+        sb.append(" }");
+    }
+
+    // A list of 1000 small objects.
+    static String list() {
+        StringBuilder sb = new StringBuilder("{ \"_Orders\" : [ ");
+        for (int i = 0; i < 1000; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append("{ \"_id\" : \"_").append(i)
+                    .append("\", \"_item\" : \"widget ").append(i % 17)
+                    .append("\", \"_price\" : \"_").append(i % 100).append(".99\" }");
+        }
+        return sb.append(" ] }").toString();
+    }
+
+    // A 16 KB Blob in the com.infinitydb.blob structure.
+    static String bytes() {
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder(
+                "{ \"_com.infinitydb.blob\" : { \"_com.infinitydb.blob.bytes\" : [ ");
+        for (int i = 0; i < 16; i++) {
+            byte[] chunk = new byte[1024];
+            random.nextBytes(chunk);
+            if (i > 0)
+                sb.append(", ");
+            sb.append("\"_").append(new IdbByteArray(chunk)).append('"');
+        }
+        return sb.append(" ], \"_com.infinitydb.blob.mimeType\" : \"image/png\" } }").toString();
+    }
+
+    // 200 dates as keys and values.
+    static String dates() {
+        StringBuilder sb = new StringBuilder("{ \"_Events\" : { ");
+        long time = 1_700_000_000_000L;
+        for (int i = 0; i < 200; i++) {
+            if (i > 0)
+                sb.append(", ");
+            String key = JsonParser.ISO_SIMPLE_DATE_FORMAT.get().format(new Date(time + i * 60_000L));
+            String value = JsonParser.ISO_SIMPLE_DATE_FORMAT.get().format(new Date(time + i * 3_600_000L));
+            sb.append("\"_").append(key).append("\" : \"_").append(value).append('"');
+        }
+        return sb.append(" } }").toString();
+    }
+
+    // 200 strings full of quotes, backslashes, control characters and non-ASCII.
+    static String escaped() {
+        StringBuilder sb = new StringBuilder("{ \"_Notes\" : { ");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append("\"note ").append(i).append("\" : ")
+                    .append(JsonParser.convertToJsonString("She said \"hi\" \\ then\tleft\n"
+                            + "caf\u00e9 \u2013 \u00fcber " + i));
+        }
+        return sb.append(" } }").toString();
+    }
+}
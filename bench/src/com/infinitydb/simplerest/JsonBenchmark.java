@@ -0,0 +1,133 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JSON hot paths: parsing from a String or UTF-8, eagerly or lazily,
+ * unquoting the tokens, writing, and flattening to and from Items, for each
+ * shape in BenchmarkPayloads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    @Param({"small", "deep", "list", "bytes", "dates", "escaped"})
+    String shape;
+
+    String json;
+    byte[] utf8;
+    List<String> tokens;
+    JsonElement root;
+    List<List<Object>> items;
+
+    @Setup
+    public void setUp() {
+        json = BenchmarkPayloads.get(shape);
+        utf8 = json.getBytes(StandardCharsets.UTF_8);
+        root = new JsonParser(json).parse();
+        items = root.flattenToList();
+        // Every component as it would be quoted in the JSON. Indexes are
+        // lists there instead.
+        tokens = new ArrayList<>();
+        for (List<Object> item : items) {
+            for (Object component : item) {
+                if (component instanceof JsonValue)
+                    component = ((JsonValue)component).value();
+                if (component instanceof IdbIndex)
+                    continue;
+                Object quoted = JsonParser.qValue(component, true);
+                tokens.add(quoted instanceof String
+                        ? JsonParser.convertToJsonString((String)quoted) : String.valueOf(quoted));
+            }
+        }
+    }
+
+    @Benchmark
+    public JsonElement parse() {
+        return new JsonParser(json).parse();
+    }
+
+    // As a response Blob is parsed, without decoding it to a String first.
+    @Benchmark
+    public JsonElement parseUtf8() {
+        return new JsonParser(utf8, 0, utf8.length).parse();
+    }
+
+    // Only the structural index, scanned a char at a time.
+    @Benchmark
+    public JsonElement parseLazily() {
+        return new JsonParser(json).parseLazily();
+    }
+
+    // Only the structural index, with strings skipped eight bytes at a time.
+    @Benchmark
+    public JsonElement parseLazilyUtf8() {
+        return new JsonParser(utf8, 0, utf8.length).parseLazily();
+    }
+
+    @Benchmark
+    public Object unQuote() {
+        Object last = null;
+        for (String token : tokens)
+            last = JsonParser.unQuote(token, true);
+        return last;
+    }
+
+    @Benchmark
+    public CharArrayWriter writeJson() throws IOException {
+        CharArrayWriter writer = new CharArrayWriter(json.length());
+        root.writeJson(writer, true, 0, "");
+        return writer;
+    }
+
+    @Benchmark
+    public List<List<Object>> flattenToList() {
+        return root.flattenToList();
+    }
+
+    @Benchmark
+    public JsonElement unflattenFromList() {
+        return JsonElement.unflattenFromList(true, items);
+    }
+}
@@ -0,0 +1,87 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What every request does before it is sent: quoting the prefix into the
+ * URL. Also the hex conversion of byte array components, which Blobs in
+ * JSON are made of.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+    Object[] documentationPrefix;
+    Object[] mixedPrefix;
+    byte[] chunk;
+    String hex;
+
+    @Setup
+    public void setUp() {
+        documentationPrefix = new Object[] {new IdbClass("Documentation"), "Basics",
+                new IdbAttribute("description"), new IdbIndex(0)};
+        mixedPrefix = new Object[] {new IdbClass("Trash"), new Date(1_700_000_000_000L),
+                42L, 3.25, "a string with spaces/and slashes", new IdbIndex(17)};
+        chunk = new byte[1024];
+        new Random(1).nextBytes(chunk);
+        hex = IdbByteArray.toHexString(chunk);
+    }
+
+    @Benchmark
+    public String getQuotedUrlDocumentation() throws IOException {
+        return InfinityDBSimpleRestClient.getQuotedUrl(documentationPrefix);
+    }
+
+    @Benchmark
+    public String getQuotedUrlMixed() throws IOException {
+        return InfinityDBSimpleRestClient.getQuotedUrl(mixedPrefix);
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return IdbByteArray.toHexString(chunk);
+    }
+
+    @Benchmark
+    public byte[] fromHexString() {
+        return IdbByteArray.fromHexString(hex);
+    }
+}
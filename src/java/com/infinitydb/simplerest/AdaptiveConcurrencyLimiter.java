@@ -0,0 +1,204 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the requests in flight to the server, and finds the limit by itself
+ * from how the server responds, so that a burst of executeQuery() calls for
+ * example does not overload it. Give one to
+ * InfinityDBSimpleRestClient.setConcurrencyLimiter(). It can be shared by
+ * several clients for the same server.
+ * 
+ * This is AIMD, as TCP does. While the limit is being used and latency stays
+ * within latencyTolerance times the lowest recent latency, the limit grows
+ * by about one per round trip. When the server answers 429 Too Many Requests
+ * or 503 Service Unavailable, or a request times out, or latency rises above
+ * that, the limit is multiplied by backoffRatio, at most once per round trip.
+ * A Retry-After from the server holds back all new requests until then.
+ * 
+ * When the limit is reached, a request either waits for one to finish, within
+ * its deadline, or with setFailFast(true) it is refused right away with a
+ * ConnectionException of status 429.
+ */
+public class AdaptiveConcurrencyLimiter {
+    // The lowest recent latency is the lowest in a window of this many.
+    static final int LATENCY_WINDOW = 1000;
+
+    final int minLimit;
+    final int maxLimit;
+    volatile boolean isFailFast;
+    volatile double backoffRatio = 0.9;
+    volatile double latencyTolerance = 2.0;
+    private double limit;
+    private int inFlight;
+    private long pausedUntilNanos = System.nanoTime();
+    private long lastDecreaseNanos = System.nanoTime();
+    private long minLatencyNanos = Long.MAX_VALUE;
+    // A moving average, as the round trip time.
+    private long smoothedLatencyNanos;
+    private long windowMinLatencyNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    final LongAdder rejectedCount = new LongAdder();
+    final LongAdder droppedCount = new LongAdder();
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit)
+            throw new IllegalArgumentException("Need 1 <= minLimit <= maxLimit");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    // Refuse requests over the limit instead of queueing them.
+    public void setFailFast(boolean isFailFast) {
+        this.isFailFast = isFailFast;
+    }
+
+    // What the limit is multiplied by on overload. The default is 0.9.
+    public void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * How many times the lowest recent latency counts as overload. The
+     * default is 2. Make it larger if response sizes vary a lot.
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    // Requests refused with setFailFast(true)
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    // Requests the server refused, or that timed out
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Wait for room for one more request, then count it as in flight. Each
+     * acquire() must be followed by exactly one of onSuccess(), onDropped()
+     * or onIgnored().
+     * 
+     * @param deadline
+     *            Nullable.
+     */
+    synchronized void acquire(Deadline deadline) throws IOException {
+        while (true) {
+            long pausedNanos = pausedUntilNanos - System.nanoTime();
+            if (inFlight < (int)limit && pausedNanos <= 0)
+                break;
+            if (isFailFast) {
+                rejectedCount.increment();
+                throw new ConnectionException(429, "Client concurrency limit of "
+                        + (int)limit + " reached", pausedNanos > 0
+                        ? TimeUnit.NANOSECONDS.toMillis(pausedNanos) : -1);
+            }
+            long waitNanos = pausedNanos > 0 ? pausedNanos : Long.MAX_VALUE;
+            if (deadline != null) {
+                if (deadline.isExpired())
+                    throw deadline.exceeded();
+                waitNanos = Math.min(waitNanos, deadline.remainingNanos());
+            }
+            try {
+                if (waitNanos == Long.MAX_VALUE)
+                    wait();
+                else
+                    wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the concurrency limit");
+            }
+        }
+        inFlight++;
+    }
+
+    // The server responded normally after this long.
+    synchronized void onSuccess(long latencyNanos) {
+        boolean wasUsingLimit = inFlight >= limit / 2;
+        release();
+        windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latencyNanos);
+        if (++windowSamples >= LATENCY_WINDOW) {
+            minLatencyNanos = windowMinLatencyNanos;
+            windowMinLatencyNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+        minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+        smoothedLatencyNanos = smoothedLatencyNanos == 0 ? latencyNanos
+                : smoothedLatencyNanos - smoothedLatencyNanos / 8 + latencyNanos / 8;
+        if (latencyNanos > latencyTolerance * minLatencyNanos)
+            decrease();
+        else if (wasUsingLimit)
+            limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    /**
+     * The server refused with 429 or 503, or the request timed out.
+     * 
+     * @param retryAfterMillis
+     *            -1 if the server did not say.
+     */
+    synchronized void onDropped(long retryAfterMillis) {
+        release();
+        droppedCount.increment();
+        decrease();
+        if (retryAfterMillis > 0) {
+            long untilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+            if (untilNanos - pausedUntilNanos > 0)
+                pausedUntilNanos = untilNanos;
+        }
+    }
+
+    // A failure that says nothing about load, like a refused connection.
+    synchronized void onIgnored() {
+        release();
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    // Responses already in flight show the old load, so only once per round trip.
+    private void decrease() {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < smoothedLatencyNanos)
+            return;
+        lastDecreaseNanos = now;
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+}
@@ -0,0 +1,139 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The content of a response as it arrives, instead of a Blob holding all of
+ * it. There is no limit on the size, and the heap needed is only a buffer.
+ * Close it when done, so the connection can be re-used.
+ */
+public class BlobInputStream extends FilterInputStream {
+    final String contentType;
+    final long contentLength;
+    private final TransportResponse response;
+    // The content read so far.
+    long bytesRead;
+    // Nullable. Run once, after the response is closed.
+    Runnable onClose;
+    // Nullable. Only if there is a ClientMetricsListener.
+    RequestMetrics metrics;
+
+    BlobInputStream(TransportResponse response) {
+        this(response, response.in, response.getContentLength());
+    }
+
+    /**
+     * @param in
+     *            the content of the response after any decompression.
+     */
+    BlobInputStream(TransportResponse response, InputStream in, long contentLength) {
+        super(in);
+        this.response = response;
+        this.contentType = response.getContentType();
+        this.contentLength = contentLength;
+    }
+
+    // Nullable, as for a Blob.
+    public String getContentType() {
+        return contentType;
+    }
+
+    // -1 if the server did not say, as for chunked content.
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    int getStatus() {
+        return response.status;
+    }
+
+    // Nullable.
+    String getHeader(String name) {
+        return response.getHeader(name);
+    }
+
+    /**
+     * The same content as a channel, as for FileChannel.transferFrom().
+     * Closing the channel closes this.
+     */
+    public ReadableByteChannel getChannel() {
+        return Channels.newChannel(this);
+    }
+
+    /**
+     * Read all of the rest into a Blob. The content has to fit in a byte[].
+     */
+    public Blob readBlob() throws IOException {
+        if (contentLength > Integer.MAX_VALUE - 8)
+            throw new IOException("Content of length " + contentLength
+                    + " is too large for a Blob: use a stream");
+        if (contentLength < 0)
+            return new Blob(readAllBytes(), contentType);
+        Blob blob = new Blob((int)contentLength, contentType);
+        blob.readFully(this);
+        return blob;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0)
+            bytesRead++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0)
+            bytesRead += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        bytesRead += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // Releases any Inflater.
+            in.close();
+        } finally {
+            response.close();
+            Runnable onClose = this.onClose;
+            this.onClose = null;
+            if (onClose != null)
+                onClose.run();
+        }
+    }
+}
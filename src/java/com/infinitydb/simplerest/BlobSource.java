@@ -0,0 +1,248 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The content of an upload that is not in the heap as a Blob, such as a file
+ * or a stream. It is sent as it is read, with a fixed Content-Length when
+ * the length is known, and otherwise with chunked transfer encoding. A file
+ * is sent with FileChannel.transferTo(), which over plain http with a
+ * ConnectionPool goes straight from the file to the socket, and otherwise
+ * goes through one small buffer. Either way, it is never copied into the heap
+ * as a whole.
+ * 
+ * A BlobSource can be sent only once, except for a file or a Blob.
+ */
+public abstract class BlobSource {
+    final String contentType;
+    // -1 if not known
+    final long contentLength;
+
+    BlobSource(String contentType, long contentLength) {
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * The whole file, with its length known ahead.
+     */
+    public static BlobSource of(Path file, String contentType) throws IOException {
+        return new FileBlobSource(file, contentType, Files.size(file));
+    }
+
+    /**
+     * @param contentLength
+     *            exactly the number of bytes to send from the stream, or -1 to
+     *            send all of it chunked.
+     */
+    public static BlobSource of(InputStream in, long contentLength, String contentType) {
+        return new InputStreamBlobSource(in, contentType, contentLength);
+    }
+
+    /**
+     * @param contentLength
+     *            exactly the number of bytes to send from the channel, or -1 to
+     *            send all of it chunked. A FileChannel is sent from its current
+     *            position with transferTo().
+     */
+    public static BlobSource of(ReadableByteChannel channel, long contentLength,
+            String contentType) {
+        return new ChannelBlobSource(channel, contentType, contentLength);
+    }
+
+    static BlobSource of(Blob blob) {
+        return new BlobBlobSource(blob);
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    long getContentLength() {
+        return contentLength;
+    }
+
+    // Nullable. The content if it is all in the heap already.
+    Blob getBlob() {
+        return null;
+    }
+
+    /**
+     * Send all of the content.
+     * 
+     * @param channel
+     *            Nullable. The raw socket under out, for zero-copy transfers. Any
+     *            buffered data in out must be flushed before using it.
+     */
+    abstract void writeTo(OutputStream out, WritableByteChannel channel)
+            throws IOException;
+
+    // For the HttpClient transports
+    abstract BodyPublisher toBodyPublisher() throws IOException;
+
+    static class BlobBlobSource extends BlobSource {
+        final Blob blob;
+
+        BlobBlobSource(Blob blob) {
+            super(blob.getContentType(), blob.length());
+            this.blob = blob;
+        }
+
+        @Override
+        Blob getBlob() {
+            return blob;
+        }
+
+        @Override
+        void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+            out.write(blob.data);
+        }
+
+        @Override
+        BodyPublisher toBodyPublisher() {
+            return BodyPublishers.ofByteArray(blob.data);
+        }
+    }
+
+    static class FileBlobSource extends BlobSource {
+        final Path file;
+
+        FileBlobSource(Path file, String contentType, long contentLength) {
+            super(contentType, contentLength);
+            this.file = file;
+        }
+
+        @Override
+        void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+            try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                transferFully(fileChannel, 0, contentLength, out, channel);
+            }
+        }
+
+        @Override
+        BodyPublisher toBodyPublisher() throws IOException {
+            return BodyPublishers.ofFile(file);
+        }
+    }
+
+    static class InputStreamBlobSource extends BlobSource {
+        final InputStream in;
+
+        InputStreamBlobSource(InputStream in, String contentType, long contentLength) {
+            super(contentType, contentLength);
+            this.in = in;
+        }
+
+        @Override
+        void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+            copy(in, out, contentLength);
+        }
+
+        @Override
+        BodyPublisher toBodyPublisher() {
+            BodyPublisher publisher = BodyPublishers.ofInputStream(() -> in);
+            return contentLength < 0 ? publisher
+                    : BodyPublishers.fromPublisher(publisher, contentLength);
+        }
+    }
+
+    static class ChannelBlobSource extends BlobSource {
+        final ReadableByteChannel readableChannel;
+
+        ChannelBlobSource(ReadableByteChannel channel, String contentType,
+                long contentLength) {
+            super(contentType, contentLength);
+            this.readableChannel = channel;
+        }
+
+        @Override
+        void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+            if (readableChannel instanceof FileChannel && contentLength >= 0) {
+                FileChannel fileChannel = (FileChannel)readableChannel;
+                transferFully(fileChannel, fileChannel.position(), contentLength,
+                        out, channel);
+                fileChannel.position(fileChannel.position() + contentLength);
+            } else {
+                copy(Channels.newInputStream(readableChannel), out, contentLength);
+            }
+        }
+
+        @Override
+        BodyPublisher toBodyPublisher() {
+            BodyPublisher publisher = BodyPublishers.ofInputStream(
+                    () -> Channels.newInputStream(readableChannel));
+            return contentLength < 0 ? publisher
+                    : BodyPublishers.fromPublisher(publisher, contentLength);
+        }
+    }
+
+    static void transferFully(FileChannel fileChannel, long position, long length,
+            OutputStream out, WritableByteChannel channel) throws IOException {
+        WritableByteChannel target;
+        if (channel != null) {
+            out.flush();
+            target = channel;
+        } else {
+            target = Channels.newChannel(out);
+        }
+        long end = position + length;
+        while (position < end) {
+            long transferred = fileChannel.transferTo(position, end - position, target);
+            if (transferred <= 0 && position >= fileChannel.size())
+                throw new EOFException("File ended before the expected length");
+            position += transferred;
+        }
+    }
+
+    // All of in, or exactly length bytes if that is not -1.
+    static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        if (length < 0) {
+            in.transferTo(out);
+            return;
+        }
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+            if (n == -1)
+                throw new EOFException("Stream ended " + remaining
+                        + " bytes before the expected length");
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+}
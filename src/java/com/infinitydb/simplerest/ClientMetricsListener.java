@@ -0,0 +1,59 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+/**
+ * Sees every request InfinityDBSimpleRestClient makes, for metrics. Give one
+ * to setMetricsListener(). InMemoryClientMetrics is a ready-made one that
+ * keeps latency histograms and counts.
+ * 
+ * These are called on the threads making the requests, so they must be fast
+ * and must not throw. Retries and hedges are separate requests. Each
+ * RequestMetrics breaks its latency down into phases.
+ */
+public interface ClientMetricsListener {
+    /**
+     * A request is about to be sent. Only the method, action, query name and
+     * request bytes are known yet.
+     */
+    default void onRequestStart(RequestMetrics request) {
+    }
+
+    /**
+     * The request is over: its content has been read and closed, or it
+     * failed. The same RequestMetrics as for onRequestStart().
+     */
+    void onRequestEnd(RequestMetrics request);
+
+    /**
+     * A response was parsed into a JsonElement for the caller, as by
+     * getAsJsonElement() or getAllAsJson(). This is after the request's
+     * onRequestEnd(), and the parse time has been added to the same
+     * RequestMetrics.
+     * 
+     * @param request
+     *            null if no request was made for it, as when it came from a
+     *            ResponseCache or was shared with another thread's read.
+     */
+    default void onParse(RequestMetrics request, long bytes, long parseNanos) {
+    }
+}
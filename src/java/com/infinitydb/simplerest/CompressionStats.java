@@ -0,0 +1,76 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of bytes before and after compression, for requests and responses,
+ * so we can see whether compression is paying for itself. Only compressed
+ * content is counted.
+ */
+public class CompressionStats {
+    final LongAdder requestBytesUncompressed = new LongAdder();
+    final LongAdder requestBytesCompressed = new LongAdder();
+    final LongAdder responseBytesCompressed = new LongAdder();
+    final LongAdder responseBytesUncompressed = new LongAdder();
+
+    public long getRequestBytesUncompressed() {
+        return requestBytesUncompressed.sum();
+    }
+
+    public long getRequestBytesCompressed() {
+        return requestBytesCompressed.sum();
+    }
+
+    public long getResponseBytesCompressed() {
+        return responseBytesCompressed.sum();
+    }
+
+    public long getResponseBytesUncompressed() {
+        return responseBytesUncompressed.sum();
+    }
+
+    // Uncompressed over compressed, so 4.0 means a quarter of the bytes were sent.
+    public double getRequestCompressionRatio() {
+        return ratio(getRequestBytesUncompressed(), getRequestBytesCompressed());
+    }
+
+    // Uncompressed over compressed, so 4.0 means a quarter of the bytes arrived.
+    public double getResponseCompressionRatio() {
+        return ratio(getResponseBytesUncompressed(), getResponseBytesCompressed());
+    }
+
+    static double ratio(long uncompressed, long compressed) {
+        return compressed == 0 ? 1.0 : (double)uncompressed / compressed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("request %d/%d bytes (%.2fx), response %d/%d bytes (%.2fx)",
+                getRequestBytesUncompressed(), getRequestBytesCompressed(),
+                getRequestCompressionRatio(),
+                getResponseBytesUncompressed(), getResponseBytesCompressed(),
+                getResponseCompressionRatio());
+    }
+}
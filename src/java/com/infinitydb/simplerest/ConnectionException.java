@@ -26,12 +26,52 @@ import java.io.IOException;
 
 public class ConnectionException extends IOException {
     final int statusCode;
+    // From a Retry-After header, as with 429 or 503. -1 if none.
+    final long retryAfterMillis;
     
     public ConnectionException(int statusCode, String msg) {
+        this(statusCode, msg, -1);
+    }
+    public ConnectionException(int statusCode, String msg, long retryAfterMillis) {
         super(msg);
         this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
     }
     public int getStatusCode() {
         return statusCode;
     }
+    // How long the server asked us to wait before trying again, or -1.
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * A new exception like e and caused by it, keeping the type so retries
+     * and failover still treat it the same. Give one to each thread that
+     * shares a failure, so none adds suppressed exceptions or stack frames
+     * to an instance the others can see.
+     */
+    static IOException copyOf(IOException e) {
+        if (e instanceof ConnectionException) {
+            ConnectionException c = (ConnectionException)e;
+            ConnectionException copy = new ConnectionException(c.statusCode,
+                    c.getMessage(), c.retryAfterMillis);
+            copy.initCause(e);
+            return copy;
+        }
+        IOException copy = copyOf(e, IOException.class);
+        return copy != null ? copy : new IOException(e.getMessage(), e);
+    }
+
+    // Null if the type has no public (String) constructor, or sets its own cause.
+    static <T extends Throwable> T copyOf(T e, Class<T> type) {
+        try {
+            Throwable copy = e.getClass().getConstructor(String.class)
+                    .newInstance(e.getMessage());
+            copy.initCause(e);
+            return type.cast(copy);
+        } catch (ReflectiveOperationException | IllegalStateException x) {
+            return null;
+        }
+    }
 }
\ No newline at end of file
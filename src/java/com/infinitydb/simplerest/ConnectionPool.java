@@ -0,0 +1,333 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An explicit pool of kept-alive HTTP/1.1 connections, owned by the client
+ * rather than hidden inside HttpURLConnection. There is a limit on the
+ * connections per host, and a connection idle for longer than the idle
+ * timeout is closed. The pool can be pre-warmed at startup so that the TCP
+ * connect and TLS handshake are not paid by the first requests after a deploy.
+ * 
+ * Give it to InfinityDBSimpleRestClient.setConnectionPool(). A pool may be
+ * shared by several clients.
+ */
+public class ConnectionPool {
+    final int maxConnectionsPerHost;
+    final long idleTimeoutMillis;
+    // Keyed by scheme://host:port
+    private final Map<String, HostPool> hostPools = new HashMap<>();
+    private final LongAdder newConnections = new LongAdder();
+    private final LongAdder reusedConnections = new LongAdder();
+    private final LongAdder evictedConnections = new LongAdder();
+    // Closes idle connections in the background. Started with the first one.
+    private ScheduledExecutorService evictor;
+    private boolean isClosed;
+
+    interface Opener {
+        PooledConnection open() throws IOException;
+    }
+
+    // The connections to one host.
+    static class HostPool {
+        // Most recently used first, so the others age out.
+        final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+        // Both idle and in use
+        int open;
+    }
+
+    /**
+     * @param maxConnectionsPerHost
+     *            beyond this, requests wait for a connection to be returned.
+     * @param idleTimeoutMillis
+     *            connections unused for this long are closed. Keep this under
+     *            the server's own keep-alive timeout.
+     */
+    public ConnectionPool(int maxConnectionsPerHost, long idleTimeoutMillis) {
+        if (maxConnectionsPerHost < 1)
+            throw new IllegalArgumentException(
+                    "A ConnectionPool needs at least one connection per host");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    // Connections opened, including by prewarming
+    public long getNewConnectionCount() {
+        return newConnections.sum();
+    }
+
+    // Requests that found a kept-alive connection waiting
+    public long getReusedConnectionCount() {
+        return reusedConnections.sum();
+    }
+
+    // Connections closed for being idle too long
+    public long getEvictedConnectionCount() {
+        return evictedConnections.sum();
+    }
+
+    public synchronized int getIdleConnectionCount() {
+        int count = 0;
+        for (HostPool hostPool : hostPools.values())
+            count += hostPool.idle.size();
+        return count;
+    }
+
+    public synchronized int getOpenConnectionCount() {
+        int count = 0;
+        for (HostPool hostPool : hostPools.values())
+            count += hostPool.open;
+        return count;
+    }
+
+    /**
+     * Close the connections that have been idle longer than the idle timeout.
+     * This happens in the background anyway.
+     */
+    public void evictIdleConnections() {
+        List<PooledConnection> evicted = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (HostPool hostPool : hostPools.values())
+                removeExpired(hostPool, now, evicted);
+            notifyAll();
+        }
+        for (PooledConnection connection : evicted)
+            connection.close();
+    }
+
+    /**
+     * Close all idle connections and stop the background eviction. Connections
+     * in use are closed when they are returned.
+     */
+    public void close() {
+        List<PooledConnection> closed = new ArrayList<>();
+        synchronized (this) {
+            for (HostPool hostPool : hostPools.values()) {
+                closed.addAll(hostPool.idle);
+                hostPool.open -= hostPool.idle.size();
+                hostPool.idle.clear();
+            }
+            if (evictor != null)
+                evictor.shutdownNow();
+            evictor = null;
+            isClosed = true;
+            notifyAll();
+        }
+        for (PooledConnection connection : closed)
+            connection.close();
+    }
+
+    /**
+     * Get an idle connection to the host, or open a new one if there is room,
+     * or else wait for one to be released.
+     * 
+     * @param timeoutMillis
+     *            how long to wait for a connection to be released, such as
+     *            the connect timeout. 0 for forever.
+     * @throws SocketTimeoutException
+     *             if none was released in time, as when the connections are
+     *             all held by streams that are never closed.
+     */
+    PooledConnection acquire(String key, int timeoutMillis, Opener opener)
+            throws IOException {
+        long waitUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            PooledConnection connection = null;
+            List<PooledConnection> evicted = new ArrayList<>();
+            // Thrown once the evicted ones are closed.
+            IOException failure = null;
+            synchronized (this) {
+                HostPool hostPool = getHostPool(key);
+                while (true) {
+                    if (isClosed) {
+                        failure = new IOException("The ConnectionPool is closed");
+                        break;
+                    }
+                    removeExpired(hostPool, System.nanoTime(), evicted);
+                    connection = hostPool.idle.pollFirst();
+                    if (connection != null || hostPool.open < maxConnectionsPerHost)
+                        break;
+                    long remainingNanos = waitUntilNanos - System.nanoTime();
+                    if (timeoutMillis > 0 && remainingNanos <= 0) {
+                        failure = new SocketTimeoutException("No pooled connection to "
+                                + key + " came free within " + timeoutMillis + " ms");
+                        break;
+                    }
+                    try {
+                        if (timeoutMillis > 0)
+                            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                        else
+                            wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failure = new InterruptedIOException(
+                                "Interrupted waiting for a pooled connection");
+                        break;
+                    }
+                }
+                if (failure == null && connection == null)
+                    hostPool.open++;
+            }
+            for (PooledConnection c : evicted)
+                c.close();
+            if (failure != null)
+                throw failure;
+            if (connection == null)
+                return openReserved(key, opener);
+            // The server may have closed it while it sat idle.
+            if (!connection.isStale()) {
+                connection.isFromIdle = true;
+                reusedConnections.increment();
+                return connection;
+            }
+            release(connection, false);
+        }
+    }
+
+    // The slot in the HostPool is already counted in open.
+    private PooledConnection openReserved(String key, Opener opener) throws IOException {
+        try {
+            PooledConnection connection = opener.open();
+            newConnections.increment();
+            startEvictor();
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                getHostPool(key).open--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return a connection from acquire(). If it is not reusable, as when the
+     * response was not completely read, it is closed.
+     */
+    void release(PooledConnection connection, boolean isReusable) {
+        synchronized (this) {
+            HostPool hostPool = getHostPool(connection.key);
+            if (isReusable && !isClosed) {
+                connection.lastUsedNanos = System.nanoTime();
+                hostPool.idle.addFirst(connection);
+                notifyAll();
+                return;
+            }
+            hostPool.open--;
+            notifyAll();
+        }
+        connection.close();
+    }
+
+    /**
+     * Open and handshake up to n connections to the host concurrently, and
+     * leave them idle in the pool. The limit per host still applies.
+     * 
+     * @return the number actually opened
+     */
+    int prewarm(String key, Opener opener, int n) throws IOException {
+        int toOpen;
+        synchronized (this) {
+            if (isClosed)
+                throw new IOException("The ConnectionPool is closed");
+            HostPool hostPool = getHostPool(key);
+            toOpen = Math.max(0, Math.min(n, maxConnectionsPerHost - hostPool.open));
+            hostPool.open += toOpen;
+        }
+        IOException[] failure = new IOException[1];
+        List<FanOut.Call<PooledConnection>> calls = new ArrayList<>();
+        for (int i = 0; i < toOpen; i++) {
+            calls.add(() -> {
+                try {
+                    return openReserved(key, opener);
+                } catch (IOException e) {
+                    // Keep the ones that did open.
+                    failure[0] = e;
+                    return null;
+                }
+            });
+        }
+        int opened = 0;
+        for (PooledConnection connection : FanOut.run(calls, toOpen, false)) {
+            if (connection != null) {
+                release(connection, true);
+                opened++;
+            }
+        }
+        if (opened == 0 && failure[0] != null)
+            throw failure[0];
+        return opened;
+    }
+
+    private HostPool getHostPool(String key) {
+        HostPool hostPool = hostPools.get(key);
+        if (hostPool == null) {
+            hostPool = new HostPool();
+            hostPools.put(key, hostPool);
+        }
+        return hostPool;
+    }
+
+    // Call while synchronized. The removed ones are closed by the caller.
+    private void removeExpired(HostPool hostPool, long now,
+            List<PooledConnection> evicted) {
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        for (Iterator<PooledConnection> it = hostPool.idle.iterator(); it.hasNext();) {
+            PooledConnection connection = it.next();
+            if (now - connection.lastUsedNanos >= idleTimeoutNanos) {
+                it.remove();
+                hostPool.open--;
+                evictedConnections.increment();
+                evicted.add(connection);
+            }
+        }
+    }
+
+    private synchronized void startEvictor() {
+        if (evictor != null || isClosed)
+            return;
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "infinitydb-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(idleTimeoutMillis / 2, 100);
+        evictor.scheduleAtFixedRate(this::evictIdleConnections,
+                period, period, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,149 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The gzip and deflate Content-Encodings. Responses are decompressed on the
+ * fly as they are read, and request Blobs are gzipped.
+ */
+class ContentEncoding {
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    static boolean isIdentity(String contentEncoding) {
+        return contentEncoding == null || contentEncoding.trim().isEmpty()
+                || contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+
+    /**
+     * Wrap the content so that reading gives the uncompressed bytes.
+     * 
+     * @param stats
+     *            Nullable. Gets the byte counts as they are read.
+     */
+    static InputStream decode(InputStream in, String contentEncoding,
+            CompressionStats stats) throws IOException {
+        if (isIdentity(contentEncoding))
+            return in;
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (stats != null)
+            in = new CountingInputStream(in, stats.responseBytesCompressed);
+        InputStream decoded;
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            /*
+             * GZIPInputStream reads the header right away, so an empty
+             * body, as with a 204 No Content, would be an EOFException.
+             */
+            PushbackInputStream pushback = new PushbackInputStream(in, 1);
+            int b = pushback.read();
+            if (b == -1)
+                return pushback;
+            pushback.unread(b);
+            decoded = new GZIPInputStream(pushback, 8192);
+        } else if (encoding.equals("deflate")) {
+            decoded = inflate(in);
+        } else {
+            throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+        return stats == null ? decoded
+                : new CountingInputStream(decoded, stats.responseBytesUncompressed);
+    }
+
+    /*
+     * HTTP 'deflate' is supposed to be zlib-wrapped, but some servers send raw
+     * deflate, so we look at the first two bytes for a zlib header.
+     */
+    static InputStream inflate(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        int cmf = pushback.read();
+        int flg = cmf == -1 ? -1 : pushback.read();
+        if (flg != -1)
+            pushback.unread(flg);
+        if (cmf != -1)
+            pushback.unread(cmf);
+        boolean isZlib = cmf != -1 && flg != -1
+                && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!isZlib), 8192);
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192)) {
+            gzipOut.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] decode(byte[] data, String contentEncoding,
+            CompressionStats stats) throws IOException {
+        if (isIdentity(contentEncoding))
+            return data;
+        try (InputStream in = decode(new ByteArrayInputStream(data),
+                contentEncoding, stats)) {
+            return in.readAllBytes();
+        }
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+        final LongAdder count;
+
+        CountingInputStream(InputStream in, LongAdder count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                count.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count.add(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.add(skipped);
+            return skipped;
+        }
+    }
+}
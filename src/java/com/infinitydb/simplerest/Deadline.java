@@ -0,0 +1,77 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The moment by which a whole call must be done, including its retries and
+ * hedges. Each attempt gets its connect and read timeouts cut down to what
+ * remains.
+ */
+class Deadline {
+    final long nanos;
+    final int millis;
+
+    private Deadline(int millis) {
+        this.millis = millis;
+        this.nanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    // Nullable for no deadline.
+    static Deadline after(int millis) {
+        return millis > 0 ? new Deadline(millis) : null;
+    }
+
+    long remainingNanos() {
+        return nanos - System.nanoTime();
+    }
+
+    boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * The timeout to use for one step of an attempt, given the configured
+     * one, where 0 means none, as for HttpURLConnection.
+     * 
+     * @throws SocketTimeoutException
+     *             if there is no time left at all.
+     */
+    static int timeoutWithin(Deadline deadline, int timeoutMillis)
+            throws SocketTimeoutException {
+        if (deadline == null)
+            return timeoutMillis;
+        long remainingNanos = deadline.remainingNanos();
+        if (remainingNanos <= 0)
+            throw deadline.exceeded();
+        // Round up, because 0 would mean forever.
+        long remainingMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos + 999_999));
+        return (int)(timeoutMillis > 0 ? Math.min(timeoutMillis, remainingMillis)
+                : Math.min(Integer.MAX_VALUE, remainingMillis));
+    }
+
+    SocketTimeoutException exceeded() {
+        return new SocketTimeoutException("Deadline of " + millis + " ms exceeded");
+    }
+}
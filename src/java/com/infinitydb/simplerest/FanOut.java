@@ -0,0 +1,173 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of independent blocking calls concurrently and returns their
+ * results in input order. There are at most 'concurrency' workers, each
+ * taking the next call until none are left, so that is also the most calls
+ * in flight at once.
+ * 
+ * The workers are virtual threads on Java 21 and later. On older Java, they
+ * are ordinary daemon threads, which is fine for moderate concurrency.
+ */
+class FanOut {
+
+    interface Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * @param isCancelOnFailure
+     *            if true, the first failure stops any calls not yet started
+     *            and interrupts those in flight, and it is thrown once they
+     *            have returned. Otherwise all calls run, and the failure of
+     *            the earliest call in the list is thrown, with the rest
+     *            suppressed.
+     */
+    static <T> List<T> run(List<? extends Call<T>> calls, int concurrency,
+            boolean isCancelOnFailure) throws IOException {
+        int n = calls.size();
+        Object[] results = new Object[n];
+        IOException[] failures = new IOException[n];
+        if (n == 0)
+            return new ArrayList<>();
+        int workers = Math.max(1, Math.min(concurrency, n));
+        AtomicInteger next = new AtomicInteger();
+        // The index of the first failure in time, or -1.
+        AtomicInteger firstFailure = new AtomicInteger(-1);
+        ExecutorService executor = newExecutor(workers);
+        List<Future<?>> futures = new ArrayList<>(workers);
+        /*
+         * The workers wait until all are submitted, so a failure can cancel
+         * every one of them, and none is refused by an executor shut down
+         * under us.
+         */
+        CountDownLatch isSubmitted = new CountDownLatch(1);
+        try {
+            for (int w = 0; w < workers; w++) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        isSubmitted.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (true) {
+                        if (isCancelOnFailure && firstFailure.get() >= 0)
+                            return;
+                        int i = next.getAndIncrement();
+                        if (i >= n)
+                            return;
+                        try {
+                            results[i] = calls.get(i).call();
+                        } catch (IOException e) {
+                            failures[i] = e;
+                        } catch (RuntimeException e) {
+                            failures[i] = new IOException(e);
+                        }
+                        if (failures[i] != null
+                                && firstFailure.compareAndSet(-1, i)
+                                && isCancelOnFailure) {
+                            // Interrupts the calls in flight, this one included.
+                            for (Future<?> future : futures)
+                                future.cancel(true);
+                            return;
+                        }
+                    }
+                }));
+            }
+            isSubmitted.countDown();
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a fan-out");
+        } finally {
+            executor.shutdownNow();
+        }
+        if (firstFailure.get() >= 0) {
+            int i = isCancelOnFailure ? firstFailure.get() : 0;
+            while (failures[i] == null)
+                i++;
+            IOException failure = failures[i];
+            for (IOException other : failures) {
+                if (other != null && other != failure)
+                    failure.addSuppressed(other);
+            }
+            throw failure;
+        }
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>)Arrays.asList(results);
+        return new ArrayList<>(list);
+    }
+
+    /**
+     * A virtual thread per task where the JDK has them. We look it up
+     * reflectively so this still compiles and runs on Java 11 and 17.
+     */
+    static ExecutorService newExecutor(int threads) {
+        ExecutorService executor = newVirtualThreadExecutor();
+        return executor != null ? executor
+                : Executors.newFixedThreadPool(threads, r -> newDaemonThread(r));
+    }
+
+    /**
+     * Like newExecutor(), but with no limit on the number of ordinary
+     * threads, which are kept a while for re-use. For a long-lived executor
+     * that is only occasionally busy.
+     */
+    static ExecutorService newCachedExecutor() {
+        ExecutorService executor = newVirtualThreadExecutor();
+        return executor != null ? executor
+                : Executors.newCachedThreadPool(r -> newDaemonThread(r));
+    }
+
+    // Nullable if the JDK is older than 21.
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Thread newDaemonThread(Runnable r) {
+        Thread thread = new Thread(r, "infinitydb-fan-out");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,302 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spreads the reads of an InfinityDBSimpleRestClient over several replicas of
+ * the server, so reads scale out without a load balancer in between. Give
+ * one to InfinityDBSimpleRestClient.setHostBalancer(). The GETs - get(),
+ * getBlob(), getAsJson() and their streams - go to the replicas, while the
+ * writes and queries still go to the client's own host, the primary. A
+ * replica may lag the primary, so a read right after a write may not see it.
+ * List the primary here too if it should take reads as well.
+ * 
+ * Each read goes to the better of two hosts picked at random, where better
+ * is a lower moving average of the latency times one more than the requests
+ * in flight. The average fades while a host is not being used. This 'power
+ * of two choices' steers away from slow or busy hosts without herding every
+ * client onto the single best one.
+ * 
+ * A host is ejected after ejectAfterFailures connection failures in a row,
+ * meaning no response at all, not an error status. While ejected, it is
+ * probed every probeIntervalMillis with a GET that has almost no response,
+ * and it takes reads again once it answers. If every host is ejected, reads
+ * go to the primary.
+ */
+public class HostBalancer {
+    // The weight of each new latency in the moving average.
+    static final double EWMA_ALPHA = 0.2;
+    /*
+     * The average is forgotten by half each second that a host has no
+     * responses, so one slow response does not keep it out for good. It is
+     * tried again and so measured again.
+     */
+    static final double LATENCY_HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /*
+     * A failure counts as a response at least this slow, so a host that
+     * fails fast, as with a quick 503 or a refused connection, looks worse
+     * rather than better.
+     */
+    static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    final Host[] hosts;
+    volatile int ejectAfterFailures = 1;
+    volatile int probeIntervalMillis = 1000;
+    // Created on first probe.
+    private ExecutorService probeExecutor;
+
+    /**
+     * @param hosts
+     *            like the host given to the InfinityDBSimpleRestClient
+     *            constructor.
+     */
+    public HostBalancer(List<String> hosts) {
+        if (hosts.isEmpty())
+            throw new IllegalArgumentException("Need at least one host");
+        this.hosts = new Host[hosts.size()];
+        for (int i = 0; i < this.hosts.length; i++) {
+            String host = hosts.get(i);
+            if (host.endsWith("/"))
+                host = host.substring(0, host.length() - 1);
+            this.hosts[i] = new Host(host);
+        }
+    }
+
+    // Connection failures in a row before a host is taken out.
+    public void setEjectAfterFailures(int ejectAfterFailures) {
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+    }
+
+    // How often an ejected host is probed to see if it is back.
+    public void setProbeInterval(int probeIntervalMillis) {
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+
+    // The hosts taking reads now.
+    public List<String> getHealthyHosts() {
+        List<String> healthy = new ArrayList<>();
+        for (Host host : hosts) {
+            if (!host.isEjected)
+                healthy.add(host.host);
+        }
+        return healthy;
+    }
+
+    // The reads sent to the host so far, or -1 if it is not one of ours.
+    public long getReadCount(String host) {
+        for (Host h : hosts) {
+            if (h.host.equals(host))
+                return h.readCount.sum();
+        }
+        return -1;
+    }
+
+    /**
+     * The host for the next read, which the caller must tell of the outcome
+     * with Host.succeeded() or Host.failed(). Ejected hosts that are due are
+     * probed in the background first.
+     * 
+     * @return null if every host is ejected.
+     */
+    Host choose(Prober prober) {
+        Host[] healthy = new Host[hosts.length];
+        int n = 0;
+        long nowNanos = System.nanoTime();
+        for (Host host : hosts) {
+            if (!host.isEjected)
+                healthy[n++] = host;
+            else if (nowNanos - host.nextProbeNanos >= 0)
+                probe(host, prober);
+        }
+        if (n == 0)
+            return null;
+        Host chosen;
+        if (n == 1) {
+            chosen = healthy[0];
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int i = random.nextInt(n);
+            // Any other one, uniformly.
+            int j = (i + 1 + random.nextInt(n - 1)) % n;
+            chosen = healthy[i].getLoad(nowNanos) <= healthy[j].getLoad(nowNanos)
+                    ? healthy[i] : healthy[j];
+        }
+        chosen.inFlight.incrementAndGet();
+        chosen.readCount.increment();
+        return chosen;
+    }
+
+    private void probe(Host host, Prober prober) {
+        if (!host.isProbing.compareAndSet(false, true))
+            return;
+        host.nextProbeNanos = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis);
+        getProbeExecutor().execute(() -> {
+            try {
+                if (prober.isAlive(host.host))
+                    host.restore();
+            } finally {
+                host.isProbing.set(false);
+            }
+        });
+    }
+
+    private synchronized ExecutorService getProbeExecutor() {
+        if (probeExecutor == null)
+            probeExecutor = FanOut.newCachedExecutor();
+        return probeExecutor;
+    }
+
+    /**
+     * A failure with no response from the server at all. A status from the
+     * server, even 500, shows it can be reached, and so does running out of
+     * time while waiting for the response, which may just be a slow read.
+     * Running out of time to connect does not.
+     */
+    static boolean isConnectionFailure(Exception e) {
+        return e instanceof ConnectTimeoutException
+                || e instanceof IOException
+                        && !(e instanceof ConnectionException)
+                        && !(e instanceof InterruptedIOException);
+    }
+
+    /**
+     * A failure that is the host's doing: no connection, an error or
+     * overload status, or no response in time. Not an interrupt of our own.
+     */
+    static boolean isHostTrouble(Exception e) {
+        if (e instanceof ConnectionException) {
+            int status = ((ConnectionException)e).getStatusCode();
+            return status >= 500 || status == 429;
+        }
+        return isConnectionFailure(e) || e instanceof SocketTimeoutException;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Host host : hosts) {
+            sb.append(host.host)
+                    .append(host.isEjected ? " ejected" : "")
+                    .append(String.format(" latency=%.2fms",
+                            host.getLatencyNanos(System.nanoTime()) / 1e6))
+                    .append(" inFlight=").append(host.inFlight.get())
+                    .append(" reads=").append(host.readCount.sum())
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Checks whether an ejected host is back.
+    interface Prober {
+        // False if the host still can't be reached.
+        boolean isAlive(String host);
+    }
+
+    /**
+     * One replica and what we have seen of it.
+     */
+    class Host {
+        // Not URL quoted, like InfinityDBSimpleRestClient.host.
+        final String host;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LongAdder readCount = new LongAdder();
+        final AtomicBoolean isProbing = new AtomicBoolean();
+        // 0 until the first response, so new hosts are tried right away.
+        private double ewmaNanos;
+        private long lastResponseNanos;
+        volatile boolean isEjected;
+        volatile long nextProbeNanos;
+        private int consecutiveFailures;
+
+        Host(String host) {
+            this.host = host;
+        }
+
+        double getLoad(long nowNanos) {
+            return getLatencyNanos(nowNanos) * (inFlight.get() + 1);
+        }
+
+        // The moving average, faded for the time since the last response.
+        synchronized double getLatencyNanos(long nowNanos) {
+            return ewmaNanos * Math.pow(0.5,
+                    (nowNanos - lastResponseNanos) / LATENCY_HALF_LIFE_NANOS);
+        }
+
+        // Once the response status arrived.
+        synchronized void succeeded(long latencyNanos) {
+            inFlight.decrementAndGet();
+            consecutiveFailures = 0;
+            record(latencyNanos);
+        }
+
+        /**
+         * @param latencyNanos
+         *            from sending the request until it failed.
+         */
+        synchronized void failed(long latencyNanos, Exception e) {
+            inFlight.decrementAndGet();
+            if (isHostTrouble(e))
+                record(Math.max(latencyNanos, FAILURE_PENALTY_NANOS));
+            else if (!(e instanceof InterruptedIOException))
+                // Such as a 404, which is a normal answer.
+                record(latencyNanos);
+            if (!isConnectionFailure(e)) {
+                consecutiveFailures = 0;
+                return;
+            }
+            if (++consecutiveFailures >= ejectAfterFailures && !isEjected) {
+                nextProbeNanos = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis);
+                isEjected = true;
+            }
+        }
+
+        private void record(long latencyNanos) {
+            long nowNanos = System.nanoTime();
+            double averageNanos = getLatencyNanos(nowNanos);
+            ewmaNanos = averageNanos == 0 ? latencyNanos
+                    : averageNanos + EWMA_ALPHA * (latencyNanos - averageNanos);
+            lastResponseNanos = nowNanos;
+        }
+
+        // Back from ejection, with a clean slate for the latency.
+        synchronized void restore() {
+            consecutiveFailures = 0;
+            ewmaNanos = 0;
+            isEjected = false;
+        }
+    }
+}
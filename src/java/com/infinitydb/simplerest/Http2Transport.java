@@ -0,0 +1,135 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The opt-in HTTP/2 transport. All requests to the server are multiplexed as
+ * streams over a single TLS connection, so concurrent requests neither queue
+ * up behind each other nor open more connections and handshakes. The
+ * number of streams in flight at once can be limited on our side too.
+ * 
+ * For an http: URL, the connection starts as HTTP/1.1 and tries to upgrade.
+ */
+class Http2Transport implements HttpTransport {
+    final HttpClient httpClient;
+    // Nullable for no limit beyond the server's own.
+    final StreamLimiter streamLimiter;
+
+    /**
+     * @param connectTimeoutMillis
+     *            for the one connection, so it is fixed here. 0 for none.
+     */
+    Http2Transport(boolean isDisableSSLSecurity, int maxConcurrentStreams,
+            int connectTimeoutMillis) throws IOException {
+        HttpClient.Builder builder = InfinityDBAsyncRestClient.newHttpClientBuilder(
+                isDisableSSLSecurity, true);
+        if (connectTimeoutMillis > 0)
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMillis));
+        this.httpClient = builder.build();
+        this.streamLimiter = maxConcurrentStreams > 0
+                ? new StreamLimiter(maxConcurrentStreams) : null;
+    }
+
+    @Override
+    public TransportResponse send(String method, URL url,
+            Map<String, String> headers, BlobSource body,
+            int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        /*
+         * A request timeout here covers everything up to the response
+         * headers, rather than each read. The content is not covered.
+         * Waiting for a stream counts against it too. The timeout has
+         * already been cut down to fit any deadline.
+         */
+        if (streamLimiter != null) {
+            long startNanos = System.nanoTime();
+            streamLimiter.acquire(readTimeoutMillis);
+            if (readTimeoutMillis > 0) {
+                long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                readTimeoutMillis = (int)Math.max(1, readTimeoutMillis - waitedMillis);
+            }
+        }
+        HttpRequest request;
+        try {
+            request = buildRequest(method, url, headers, body, readTimeoutMillis);
+        } catch (IOException e) {
+            if (streamLimiter != null)
+                streamLimiter.release();
+            throw e;
+        }
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, BodyHandlers.ofInputStream());
+        } catch (IOException | RuntimeException e) {
+            if (streamLimiter != null)
+                streamLimiter.release();
+            throw e;
+        } catch (InterruptedException e) {
+            if (streamLimiter != null)
+                streamLimiter.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.toString());
+        }
+        // The stream stays open until the content is read and closed.
+        return new TransportResponse(response.statusCode(),
+                TransportResponse.statusMessage(response.statusCode(), url),
+                response.headers().map(), response.body(),
+                streamLimiter == null ? null : streamLimiter::release);
+    }
+
+    /**
+     * @param timeoutMillis
+     *            for the response headers to arrive. 0 for none.
+     */
+    static HttpRequest buildRequest(String method, URL url,
+            Map<String, String> headers, BlobSource body, int timeoutMillis)
+            throws IOException {
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI());
+            if (timeoutMillis > 0)
+                builder.timeout(Duration.ofMillis(timeoutMillis));
+            for (Map.Entry<String, String> header : headers.entrySet())
+                builder.header(header.getKey(), header.getValue());
+            if (method.equalsIgnoreCase("POST") && body != null)
+                builder.method(method, body.toBodyPublisher());
+            else
+                builder.method(method, BodyPublishers.noBody());
+            return builder.build();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Cannot make a request for URL: " + url, e);
+        }
+    }
+}
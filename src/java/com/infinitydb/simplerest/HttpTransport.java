@@ -0,0 +1,51 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * How InfinityDBSimpleRestClient.command() gets a request to the server and
+ * the response back. The default is HttpURLConnection, and there is an opt-in
+ * HTTP/2 transport that multiplexes requests over one connection.
+ */
+interface HttpTransport {
+    /**
+     * A response is returned for any status, including errors, so the caller
+     * decides what is a success. An IOException means no status arrived.
+     * 
+     * @param headers
+     *            such as Authorization and Content-Type.
+     * @param body
+     *            Nullable. Only sent with POST.
+     * @param connectTimeoutMillis
+     *            0 for none.
+     * @param readTimeoutMillis
+     *            the longest wait for the server to say anything. 0 for none.
+     */
+    TransportResponse send(String method, URL url, Map<String, String> headers,
+            BlobSource body, int connectTimeoutMillis, int readTimeoutMillis)
+            throws IOException;
+}
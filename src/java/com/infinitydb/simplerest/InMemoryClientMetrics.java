@@ -0,0 +1,180 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ClientMetricsListener that keeps everything in memory, lock-free: a
+ * latency histogram for each action and for each query, byte counts, counts
+ * of each status, and the number of requests in flight. toString() gives a
+ * report.
+ * 
+ * With setSlowRequestThreshold(), the most recent requests slower than that
+ * are kept whole, with their URLs, sizes and phases, to see where the time
+ * went. A request's time includes parsing the response, if it was parsed.
+ */
+public class InMemoryClientMetrics implements ClientMetricsListener {
+    final ConcurrentHashMap<String, LatencyHistogram> actionHistograms =
+            new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, LatencyHistogram> queryHistograms =
+            new ConcurrentHashMap<>();
+    // Status 0 is for no response at all.
+    final ConcurrentHashMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    final LongAdder requestBytes = new LongAdder();
+    final LongAdder responseBytes = new LongAdder();
+    final LongAdder inFlight = new LongAdder();
+    final LatencyHistogram parseHistogram = new LatencyHistogram();
+    final LongAdder parsedBytes = new LongAdder();
+    // 0 for no sampling.
+    volatile long slowRequestThresholdNanos;
+    int maxSlowRequests;
+    // Synchronized on itself. The oldest first.
+    final ArrayDeque<RequestMetrics> slowRequests = new ArrayDeque<>();
+
+    /**
+     * Keep the last maxSlowRequests requests that took thresholdMillis or
+     * more. 0 for none, which is the default.
+     */
+    public void setSlowRequestThreshold(long thresholdMillis, int maxSlowRequests) {
+        synchronized (slowRequests) {
+            this.maxSlowRequests = maxSlowRequests;
+            while (slowRequests.size() > maxSlowRequests)
+                slowRequests.pollFirst();
+        }
+        this.slowRequestThresholdNanos = thresholdMillis * 1_000_000;
+    }
+
+    @Override
+    public void onRequestStart(RequestMetrics request) {
+        inFlight.increment();
+    }
+
+    @Override
+    public void onRequestEnd(RequestMetrics request) {
+        inFlight.decrement();
+        actionHistograms.computeIfAbsent(request.action, a -> new LatencyHistogram())
+                .record(request.latencyNanos);
+        if (request.queryName != null) {
+            queryHistograms.computeIfAbsent(request.queryName, q -> new LatencyHistogram())
+                    .record(request.latencyNanos);
+        }
+        statusCounts.computeIfAbsent(request.status, s -> new LongAdder()).increment();
+        requestBytes.add(request.requestBytes);
+        responseBytes.add(request.responseBytes);
+        long slowRequestThresholdNanos = this.slowRequestThresholdNanos;
+        if (slowRequestThresholdNanos > 0
+                && request.latencyNanos >= slowRequestThresholdNanos)
+            addSlowRequest(request);
+    }
+
+    @Override
+    public void onParse(RequestMetrics request, long bytes, long parseNanos) {
+        parseHistogram.record(parseNanos);
+        parsedBytes.add(bytes);
+        // Unless onRequestEnd() already kept it.
+        long slowRequestThresholdNanos = this.slowRequestThresholdNanos;
+        if (request != null && slowRequestThresholdNanos > 0
+                && request.latencyNanos < slowRequestThresholdNanos
+                && request.latencyNanos + parseNanos >= slowRequestThresholdNanos)
+            addSlowRequest(request);
+    }
+
+    private void addSlowRequest(RequestMetrics request) {
+        synchronized (slowRequests) {
+            if (maxSlowRequests > 0 && slowRequests.size() >= maxSlowRequests)
+                slowRequests.pollFirst();
+            if (maxSlowRequests > 0)
+                slowRequests.addLast(request);
+        }
+    }
+
+    // Nullable if there has been no such action.
+    public LatencyHistogram getActionHistogram(String action) {
+        return actionHistograms.get(action);
+    }
+
+    // Nullable. The name is "interfaceName/methodName".
+    public LatencyHistogram getQueryHistogram(String queryName) {
+        return queryHistograms.get(queryName);
+    }
+
+    public long getStatusCount(int status) {
+        LongAdder count = statusCounts.get(status);
+        return count == null ? 0 : count.sum();
+    }
+
+    public long getRequestBytes() {
+        return requestBytes.sum();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.sum();
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    // Of the responses parsed into JsonElements.
+    public LatencyHistogram getParseHistogram() {
+        return parseHistogram;
+    }
+
+    public long getParsedBytes() {
+        return parsedBytes.sum();
+    }
+
+    // The oldest first. A copy.
+    public List<RequestMetrics> getSlowRequests() {
+        synchronized (slowRequests) {
+            return new ArrayList<>(slowRequests);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(actionHistograms).entrySet())
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(queryHistograms).entrySet())
+            sb.append("query ").append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        sb.append("status");
+        for (Map.Entry<Integer, LongAdder> e : new TreeMap<>(statusCounts).entrySet())
+            sb.append(' ').append(e.getKey()).append('=').append(e.getValue().sum());
+        sb.append("\nsent=").append(getRequestBytes())
+                .append(" received=").append(getResponseBytes())
+                .append(" in flight=").append(getInFlight());
+        if (parseHistogram.getCount() > 0)
+            sb.append("\nparse: ").append(parseHistogram)
+                    .append(" parsed=").append(getParsedBytes());
+        for (RequestMetrics request : getSlowRequests())
+            sb.append("\nslow: ").append(request);
+        return sb.toString();
+    }
+}
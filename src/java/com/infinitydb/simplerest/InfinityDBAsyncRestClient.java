@@ -0,0 +1,300 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+
+/**
+ * The asynchronous form of InfinityDBSimpleRestClient. Every action returns a
+ * CompletableFuture<Blob> immediately, and no thread waits while the request
+ * is on the wire, so many hundreds of calls can be in flight at once. This
+ * is built on java.net.http.HttpClient, which needs Java 11 or later.
+ * 
+ * The URLs are quoted exactly as in InfinityDBSimpleRestClient, and a
+ * response status other than 200 or 204 completes the future exceptionally
+ * with a ConnectionException carrying that status.
+ * 
+ * See boilerbay.com.
+ */
+public class InfinityDBAsyncRestClient {
+    // Not URL quoted, unlike the prefix.
+    final String host;
+    String userName;
+    String passWord;
+    // See InfinityDBSimpleRestClient. Don't use this in production!!!!
+    boolean isDisableSSLSecurity;
+    // Nullable. Otherwise the HttpClient default is used.
+    Executor executor;
+    // See InfinityDBSimpleRestClient.setHttp2().
+    boolean isHttp2;
+    int maxConcurrentStreams;
+    // Created on first use, so the setters take effect.
+    private HttpClient httpClient;
+    // Nullable for no limit.
+    private StreamLimiter streamLimiter;
+    // See InfinityDBSimpleRestClient.setAcceptCompression().
+    boolean isAcceptCompression;
+    final CompressionStats compressionStats = new CompressionStats();
+
+    public InfinityDBAsyncRestClient(String host) {
+        if (host.endsWith("/"))
+            host = host.substring(0, host.length() - 1);
+        this.host = host;
+    }
+
+    public synchronized void setUserNameAndPassWord(String userName, String passWord) {
+        this.userName = userName;
+        this.passWord = passWord;
+    }
+
+    /**
+     * Only the certificate validation is disabled here. The HttpClient has
+     * no per-client host name verifier, so for that you also need the
+     * system property jdk.internal.httpclient.disableHostnameVerification.
+     */
+    public synchronized void setDisableSSLSecurity(boolean isDisableSSLSecurity) {
+        this.isDisableSSLSecurity = isDisableSSLSecurity;
+        httpClient = null;
+    }
+
+    /**
+     * The Executor for the HttpClient's own work and for dependent stages
+     * of the returned futures.
+     */
+    public synchronized void setExecutor(Executor executor) {
+        this.executor = executor;
+        httpClient = null;
+    }
+
+    /**
+     * Send all requests as HTTP/2 streams multiplexed over one connection.
+     */
+    public synchronized void setHttp2(boolean isHttp2) {
+        this.isHttp2 = isHttp2;
+        httpClient = null;
+    }
+
+    /**
+     * The most requests we will have in flight at once. Beyond that, requests
+     * wait in a queue without holding a thread. 0 means no limit of our own.
+     */
+    public synchronized void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        streamLimiter = maxConcurrentStreams > 0
+                ? new StreamLimiter(maxConcurrentStreams) : null;
+    }
+
+    /**
+     * Ask for gzip or deflate compressed responses. The Blobs are always
+     * decompressed.
+     */
+    public void setAcceptCompression(boolean isAcceptCompression) {
+        this.isAcceptCompression = isAcceptCompression;
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * @see InfinityDBSimpleRestClient#get(Object...)
+     */
+    public CompletableFuture<Blob> get(Object... prefix) {
+        return command("GET", null, null, null, prefix);
+    }
+
+    /**
+     * @see InfinityDBSimpleRestClient#getBlob(Object...)
+     */
+    public CompletableFuture<Blob> getBlob(Object... prefix) {
+        return command("GET", "get-blob", null, null, prefix);
+    }
+
+    /**
+     * @see InfinityDBSimpleRestClient#getAsJson(Object...)
+     */
+    public CompletableFuture<Blob> getAsJson(Object... prefix) {
+        return command("GET", "as-json", null, null, prefix);
+    }
+
+    /**
+     * @see InfinityDBSimpleRestClient#putBlob(Blob, Object...)
+     */
+    public CompletableFuture<Blob> putBlob(Blob blob, Object... prefix) {
+        return command("POST", "write", blob, null, prefix);
+    }
+
+    /**
+     * @see InfinityDBSimpleRestClient#appendBlob(Blob, Object...)
+     */
+    public CompletableFuture<Blob> appendBlob(Blob blob, Object... prefix) {
+        return command("POST", "append", blob, null, prefix);
+    }
+
+    /**
+     * @see InfinityDBSimpleRestClient#executeQuery(String, String, Blob, Blob)
+     */
+    public CompletableFuture<Blob> executeQuery(String interfaceName, String methodName,
+            Blob requestContentBlob,
+            Blob paramsUrlParameterJsonBlob) {
+        return command("POST", "execute-query",
+                requestContentBlob,
+                paramsUrlParameterJsonBlob,
+                interfaceName, methodName);
+    }
+
+    /**
+     * @see InfinityDBSimpleRestClient#executeGetBlobQuery(String, String, Blob, Blob)
+     */
+    public CompletableFuture<Blob> executeGetBlobQuery(String interfaceName, String methodName,
+            Blob requestContentBlob,
+            Blob paramsUrlParameterJsonBlob) {
+        return command("POST", "execute-get-blob-query",
+                requestContentBlob,
+                paramsUrlParameterJsonBlob,
+                interfaceName, methodName);
+    }
+
+    /**
+     * @see InfinityDBSimpleRestClient#executePutBlobQuery(String, String, Blob, Blob)
+     */
+    public CompletableFuture<Blob> executePutBlobQuery(String interfaceName, String methodName,
+            Blob requestContentBlob,
+            Blob paramsUrlParameterJsonBlob) {
+        return command("POST", "execute-put-blob-query",
+                requestContentBlob,
+                paramsUrlParameterJsonBlob,
+                interfaceName, methodName);
+    }
+
+    /**
+     * The prefix may be a nested Object[] of components to be URL-quoted.
+     * Problems building the request, such as a bad params Blob, also show up
+     * in the returned future rather than being thrown.
+     */
+    CompletableFuture<Blob> command(String method, String action,
+            Blob requestBlob,
+            Blob paramsUrlParameterBlob,
+            Object... prefix) {
+        if (method.equalsIgnoreCase("GET") && requestBlob != null)
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "Method GET is not compatible with sending a Blob"));
+        HttpRequest request;
+        HttpClient client;
+        StreamLimiter limiter;
+        try {
+            URL url = new URL(InfinityDBSimpleRestClient.getCommandUrl(
+                    host, action, paramsUrlParameterBlob, prefix));
+            Map<String, String> headers = new LinkedHashMap<>();
+            synchronized (this) {
+                if (userName != null) {
+                    headers.put("Authorization",
+                            InfinityDBSimpleRestClient.getBasicAuthorization(
+                                    userName, passWord));
+                }
+                limiter = streamLimiter;
+            }
+            if (method.equalsIgnoreCase("POST") && requestBlob != null)
+                headers.put("Content-Type", requestBlob.getContentType());
+            if (isAcceptCompression)
+                headers.put("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+            request = Http2Transport.buildRequest(method, url, headers,
+                    requestBlob == null ? null : BlobSource.of(requestBlob), 0);
+            client = getHttpClient();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (limiter == null) {
+            return client.sendAsync(request, BodyHandlers.ofByteArray())
+                    .thenCompose(this::toBlob);
+        }
+        return limiter.acquire()
+                .thenCompose(v -> client.sendAsync(request, BodyHandlers.ofByteArray()))
+                .whenComplete((response, e) -> limiter.release())
+                .thenCompose(this::toBlob);
+    }
+
+    CompletableFuture<Blob> toBlob(HttpResponse<byte[]> response) {
+        int status = response.statusCode();
+        if (status == 200 || status == 204) {
+            // SUCCESS. Blob may still be empty if that's what we want.
+            String contentType =
+                    response.headers().firstValue("Content-Type").orElse(null);
+            byte[] data = response.body() != null ? response.body() : new byte[0];
+            try {
+                data = ContentEncoding.decode(data,
+                        response.headers().firstValue("Content-Encoding").orElse(null),
+                        compressionStats);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return CompletableFuture.completedFuture(new Blob(data, contentType));
+        }
+        // The HttpClient does not give us the reason phrase.
+        return CompletableFuture.failedFuture(new ConnectionException(status,
+                TransportResponse.statusMessage(status, response.uri()),
+                TransportResponse.parseRetryAfterMillis(
+                        response.headers().firstValue("Retry-After").orElse(null))));
+    }
+
+    synchronized HttpClient getHttpClient() throws IOException {
+        if (httpClient == null) {
+            HttpClient.Builder builder = newHttpClientBuilder(isDisableSSLSecurity, isHttp2);
+            if (executor != null)
+                builder.executor(executor);
+            httpClient = builder.build();
+        }
+        return httpClient;
+    }
+
+    static HttpClient.Builder newHttpClientBuilder(boolean isDisableSSLSecurity,
+            boolean isHttp2) throws IOException {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                // HTTP/1.1 is like HttpURLConnection. Don't try an h2c upgrade.
+                .version(isHttp2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+        if (isDisableSSLSecurity) {
+            try {
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, new TrustManager[] {new TrustAnythingTrustManager()},
+                        new SecureRandom());
+                builder.sslContext(sslContext);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        return builder;
+    }
+}
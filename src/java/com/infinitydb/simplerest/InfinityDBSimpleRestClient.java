@@ -23,27 +23,33 @@
 package com.infinitydb.simplerest;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 
 /**
  * The helper code to access InfinityDB Server. This is all
@@ -72,6 +78,71 @@ public class InfinityDBSimpleRestClient {
      *  We disable both host name verification and certificate validation.
      */
     boolean isDisableSSLSecurity;
+    /*
+     * Opt-in HTTP/2, which multiplexes all of the requests as streams over a
+     * single TLS connection instead of a connection per concurrent request.
+     * The maxConcurrentStreams is our own limit on the streams in flight, and
+     * 0 leaves it to the server.
+     */
+    boolean isHttp2;
+    int maxConcurrentStreams;
+    // Nullable. An explicit pool of HTTP/1.1 connections instead of the
+    // hidden one in HttpURLConnection.
+    ConnectionPool connectionPool;
+    // Created on first use, so the setters take effect.
+    private HttpTransport transport;
+    /*
+     * Compression. With isAcceptCompression, we ask for gzip or deflate
+     * responses and decompress them as they are read. Request Blobs at least
+     * requestCompressionThreshold long are gzipped, unless the server has
+     * refused that with 415 Unsupported Media Type. Streamed uploads are
+     * usually media that is compressed already, so they are sent as is.
+     */
+    boolean isAcceptCompression;
+    int requestCompressionThreshold;
+    volatile boolean isRequestCompressionRefused;
+    final CompressionStats compressionStats = new CompressionStats();
+    // The most calls in flight at once for getAll() and executeQueryAll().
+    int fanOutConcurrency = 64;
+    // The most JSON getAllAsJson() reads on a common ancestor.
+    int coalescingByteBudget = 1 << 20;
+    /*
+     * Timeouts, retries and hedging. The timeouts are for each attempt, with
+     * 0 for none, while the deadline is for a whole call including its
+     * retries and hedges, so it cuts the timeouts of late attempts short.
+     * Only the idempotent reads get(), getBlob() and getAsJson() are retried
+     * or hedged. A hedged read sends a second request when the first has
+     * taken longer than the recent p95 for that action, and takes whichever
+     * response comes first.
+     */
+    static final double HEDGE_PERCENTILE = 0.95;
+    // For the HostBalancer's probes if there is no connect timeout.
+    static final int PROBE_TIMEOUT_MILLIS = 5000;
+    int connectTimeoutMillis;
+    int readTimeoutMillis;
+    int deadlineMillis;
+    RetryPolicy retryPolicy = RetryPolicy.NONE;
+    boolean isHedging;
+    // Successful read latencies by action, for the hedging delay.
+    final Map<String, LatencyTracker> latencyTrackers = new ConcurrentHashMap<>();
+    // Nullable.
+    ResponseCache responseCache;
+    // Nullable.
+    ClientMetricsListener metricsListener;
+    // Nullable for no limit on the requests in flight.
+    AdaptiveConcurrencyLimiter concurrencyLimiter;
+    // Nullable. Spreads the GETs over replicas, while the rest go to host.
+    HostBalancer hostBalancer;
+    // Concurrent identical reads share one request.
+    boolean isSingleFlight = true;
+    boolean isSingleFlightCopying;
+    final SingleFlight singleFlight = new SingleFlight();
+    // Writes and queries done, which separates the reads before from after.
+    final AtomicLong writeCount = new AtomicLong();
+    // Created on first hedge.
+    private ExecutorService hedgeExecutor;
+    final LongAdder retryCount = new LongAdder();
+    final LongAdder hedgeCount = new LongAdder();
 
     public InfinityDBSimpleRestClient(String host) {
         if (host.endsWith("/"))
@@ -84,8 +155,209 @@ public class InfinityDBSimpleRestClient {
         this.passWord = passWord;
     }
     
-    public void setDisableSSLSecurity(boolean isDisableSSLSecurity) {
+    public synchronized void setDisableSSLSecurity(boolean isDisableSSLSecurity) {
         this.isDisableSSLSecurity = isDisableSSLSecurity;
+        transport = null;
+    }
+
+    /**
+     * Send all requests as HTTP/2 streams multiplexed over one connection. This
+     * helps most when many threads share this client. Needs Java 11 or later.
+     */
+    public synchronized void setHttp2(boolean isHttp2) {
+        this.isHttp2 = isHttp2;
+        transport = null;
+    }
+
+    /**
+     * With HTTP/2, the most requests we will have in flight at once. Beyond
+     * that, callers wait for a stream to finish. 0 means no limit of our own.
+     */
+    public synchronized void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        transport = null;
+    }
+
+    /**
+     * Ask the server for gzip or deflate compressed responses with
+     * Accept-Encoding. They are decompressed on the fly as they are read, so
+     * the Blobs and streams you get are always uncompressed. Underscore-quoted
+     * JSON is very repetitive, so it typically shrinks several times over.
+     */
+    public void setAcceptCompression(boolean isAcceptCompression) {
+        this.isAcceptCompression = isAcceptCompression;
+    }
+
+    /**
+     * Gzip request Blobs of at least this many bytes, with Content-Encoding.
+     * If the server answers 415 Unsupported Media Type, the request is sent
+     * again uncompressed and compression is not tried again. 0 to turn it off.
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+        isRequestCompressionRefused = false;
+    }
+
+    // The bytes before and after compression, in both directions.
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * Send requests over kept-alive HTTP/1.1 connections from this pool,
+     * rather than HttpURLConnection. The pool limits the connections per
+     * host, closes idle ones, and counts new versus re-used connections.
+     * Null goes back to HttpURLConnection. Not used with setHttp2(true).
+     */
+    public synchronized void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        transport = null;
+    }
+
+    /**
+     * Connect and handshake n connections to the host now, so the first
+     * requests don't pay for it. Do this at startup. It needs a
+     * ConnectionPool, and is limited by its connections per host.
+     * 
+     * @return the number of connections actually opened.
+     */
+    public int prewarm(int n) throws IOException {
+        HttpTransport transport = getTransport();
+        if (!(transport instanceof PooledTransport))
+            throw new IllegalStateException(
+                    "Prewarming needs a ConnectionPool and HTTP/1.1");
+        return ((PooledTransport)transport).prewarm(new URL(host), n);
+    }
+
+    /**
+     * Answer get(), getBlob() and getAsJson() from this cache while the
+     * responses are fresh. Writes and queries through this client keep it
+     * up to date. A cache can be shared by clients for the same host. Null
+     * for none, the default.
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Tell the listener about every request, such as an
+     * InMemoryClientMetrics. Null for none, the default, which costs nothing.
+     */
+    public void setMetricsListener(ClientMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Keep the requests in flight within a limit that adapts to how the
+     * server is coping, and hold back when it sends Retry-After. This applies
+     * to every call, including the fan-outs, retries and hedges. Null for no
+     * limit, the default.
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Send the reads to replicas of the server, chosen by the balancer for
+     * their latency and load, while the writes and queries still go to the
+     * host given to the constructor. Null, the default, sends everything to
+     * the host.
+     */
+    public void setHostBalancer(HostBalancer hostBalancer) {
+        this.hostBalancer = hostBalancer;
+    }
+
+    /**
+     * Whether threads doing the same get(), getBlob() or getAsJson() at the
+     * same time share one request and its Blob, instead of each going to the
+     * server. This is on by default.
+     * 
+     * @param isCopying
+     *            give each thread its own copy of the Blob rather than the
+     *            same one.
+     */
+    public void setSingleFlight(boolean isSingleFlight, boolean isCopying) {
+        this.isSingleFlight = isSingleFlight;
+        this.isSingleFlightCopying = isCopying;
+    }
+
+    // Reads that waited for an identical one in flight, rather than sending their own.
+    public long getSharedReadCount() {
+        return singleFlight.sharedCount.sum();
+    }
+
+    /**
+     * For getAllAsJson(), the most bytes of JSON to read from a common
+     * ancestor of the prefixes before giving up on it as too big and reading
+     * narrower ancestors instead.
+     */
+    public void setCoalescingByteBudget(int coalescingByteBudget) {
+        this.coalescingByteBudget = coalescingByteBudget;
+    }
+
+    /**
+     * Give up connecting after this long, including the TLS handshake. 0, the
+     * default, waits as long as the operating system does.
+     */
+    public synchronized void setConnectTimeout(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        transport = null;
+    }
+
+    /**
+     * Give up when the server is silent for this long while we wait for a
+     * response. With setHttp2(true), it is instead the limit on the wait for
+     * the response headers. 0, the default, waits forever.
+     */
+    public void setReadTimeout(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Give up on any call not done after this long, with a
+     * SocketTimeoutException. For the reads, this includes all of their
+     * retries and hedges. It is enforced by shortening the timeouts, so a
+     * response that is trickling in steadily can overrun it a little. 0,
+     * the default, for none.
+     */
+    public void setDeadline(int deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * How get(), getBlob() and getAsJson() are retried on transient
+     * failures. The default is RetryPolicy.NONE.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+    }
+
+    /**
+     * Hedge get(), getBlob() and getAsJson(): when a response is slower than
+     * the recent p95 for that kind of read, send the same request again and
+     * take whichever response comes first. This trims the tail latency for
+     * roughly 5% more requests. Hedging starts once a few dozen reads have
+     * shown what the p95 is.
+     */
+    public void setHedging(boolean isHedging) {
+        this.isHedging = isHedging;
+    }
+
+    // Attempts beyond the first, over all reads.
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+    // Second requests sent by hedging.
+    public long getHedgeCount() {
+        return hedgeCount.sum();
+    }
+
+    /**
+     * For getAll() and executeQueryAll(), the most calls in flight at once.
+     */
+    public void setFanOutConcurrency(int fanOutConcurrency) {
+        this.fanOutConcurrency = fanOutConcurrency;
     }
 
     /**
@@ -102,7 +374,7 @@ public class InfinityDBSimpleRestClient {
      * @throws ConnectionException if the response status was not 200 or 204.
      */
     public Blob get(Object... prefix) throws IOException {
-        return command("GET", null, null, null, prefix);
+        return readCommand(null, null, prefix);
     }
 
     /**
@@ -116,7 +388,7 @@ public class InfinityDBSimpleRestClient {
      * @throws ConnectionException if the response status was not 200 or 204.
      */
     public Blob getBlob(Object... prefix) throws IOException {
-        return command("GET", "get-blob", null, null, prefix);
+        return readCommand("get-blob", null, prefix);
     }
 
     /**
@@ -129,12 +401,42 @@ public class InfinityDBSimpleRestClient {
      * Actually, you can read any number of Blobs that may be nested within that
      * JSON all at once. (We are working on a way to get those nested Blobs
      * out. It is not necessarily faster to transfer a batch of blobs
-     * this way until we get zlib compression.)
+     * this way unless compression is on: see setAcceptCompression().)
      * 
      * @throws ConnectionException if the response status was not 200 or 204.
      */
     public Blob getAsJson(Object... prefix) throws IOException {
-        return command("GET", "as-json", null, null, prefix);
+        return readCommand("as-json", null, prefix);
+    }
+
+    /**
+     * Like getAsJson(), but parsed. An empty JsonObject means there was
+     * nothing on the prefix. The parse time goes to the ClientMetricsListener,
+     * added to the RequestMetrics of the read.
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public JsonElement getAsJsonElement(Object... prefix) throws IOException {
+        return getAsJsonElement(false, prefix);
+    }
+
+    /**
+     * Like getAsJsonElement(), but each JsonObject and JsonList decodes its
+     * contents only when first used, as for JsonParser.parseLazily(). For
+     * a large result of which only a few paths are read. The parse time
+     * that goes to the ClientMetricsListener is just the indexing.
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public JsonElement getAsLazyJsonElement(Object... prefix) throws IOException {
+        return getAsJsonElement(true, prefix);
+    }
+
+    private JsonElement getAsJsonElement(boolean isLazy, Object... prefix)
+            throws IOException {
+        RequestMetrics[] request = new RequestMetrics[1];
+        Blob blob = readCommand("as-json", request, prefix);
+        return parseJson(blob, isLazy, request[0]);
     }
 
     /**
@@ -149,7 +451,7 @@ public class InfinityDBSimpleRestClient {
      * contents.
      */
     public Blob putBlob(Blob blob, Object... prefix) throws IOException {
-        return command("POST", "write", blob, null, prefix);
+        return command("POST", "write", toSource(blob), null, prefix);
     }
 
     /**
@@ -167,7 +469,7 @@ public class InfinityDBSimpleRestClient {
      * @throws ConnectionException if the response status was not 200 or 204.
      */
     public Blob appendBlob(Blob Blob, Object... prefix) throws IOException {
-        return command("POST", "append", Blob, null, prefix);
+        return command("POST", "append", toSource(Blob), null, prefix);
     }
 
     /**
@@ -207,7 +509,7 @@ public class InfinityDBSimpleRestClient {
             Blob paramsUrlParameterJsonBlob)
             throws IOException {
         return command("POST", "execute-query",
-                requestContentBlob,
+                toSource(requestContentBlob),
                 paramsUrlParameterJsonBlob,
                 interfaceName, methodName);
     }
@@ -251,7 +553,7 @@ public class InfinityDBSimpleRestClient {
             Blob paramsUrlParameterJsonBlob)
             throws IOException {
         return command("POST", "execute-get-blob-query", 
-                requestContentBlob,
+                toSource(requestContentBlob),
                 paramsUrlParameterJsonBlob,
                 interfaceName, methodName);
     }
@@ -298,11 +600,245 @@ public class InfinityDBSimpleRestClient {
             Blob requestContentBlob,
             Blob paramsUrlParameterJsonBlob) throws IOException {
         return command("POST", "execute-put-blob-query", 
-                requestContentBlob,
+                toSource(requestContentBlob),
                 paramsUrlParameterJsonBlob,
                 interfaceName, methodName);
     }
 
+    /**
+     * Like putBlob(), but the content is sent as it is read from the source,
+     * such as a file or a stream, without being in the heap as a whole. See
+     * BlobSource.
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public Blob putBlob(BlobSource blobSource, Object... prefix) throws IOException {
+        return command("POST", "write", blobSource, null, prefix);
+    }
+
+    /**
+     * Like putBlob(), but the content is sent straight from the file.
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public Blob putBlob(Path file, String contentType, Object... prefix) throws IOException {
+        return command("POST", "write", BlobSource.of(file, contentType), null, prefix);
+    }
+
+    /**
+     * Like appendBlob(), but the content is sent as it is read from the
+     * source. See BlobSource.
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public Blob appendBlob(BlobSource blobSource, Object... prefix) throws IOException {
+        return command("POST", "append", blobSource, null, prefix);
+    }
+
+    /**
+     * Like appendBlob(), but the content is sent straight from the file.
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public Blob appendBlob(Path file, String contentType, Object... prefix) throws IOException {
+        return command("POST", "append", BlobSource.of(file, contentType), null, prefix);
+    }
+
+    /**
+     * Like executePutBlobQuery(), but the content is sent as it is read from
+     * the source. See BlobSource.
+     * 
+     * @throws ConnectionException
+     *             if the response status was not 200 OK or 204 NO_CONTENT.
+     */
+    public Blob executePutBlobQuery(String interfaceName, String methodName,
+            BlobSource requestContentSource,
+            Blob paramsUrlParameterJsonBlob) throws IOException {
+        return command("POST", "execute-put-blob-query",
+                requestContentSource,
+                paramsUrlParameterJsonBlob,
+                interfaceName, methodName);
+    }
+
+    /**
+     * Like get(), but the content is read as it arrives from the returned
+     * stream rather than all held in a Blob. This is for large Blobs and large
+     * JSON, which need no more heap than a buffer this way. Close the stream
+     * when done.
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public BlobInputStream getStream(Object... prefix) throws IOException {
+        return commandStream("GET", null, null, null, prefix);
+    }
+
+    /**
+     * Like getBlob(), but streaming as for getStream().
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public BlobInputStream getBlobStream(Object... prefix) throws IOException {
+        return commandStream("GET", "get-blob", null, null, prefix);
+    }
+
+    /**
+     * Like getAsJson(), but streaming as for getStream().
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public BlobInputStream getAsJsonStream(Object... prefix) throws IOException {
+        return commandStream("GET", "as-json", null, null, prefix);
+    }
+
+    /**
+     * Like getAsJsonStream(), but giving the Items under the prefix as they
+     * arrive, never building the JSON into a tree. Close it when done.
+     * 
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public JsonItemReader getItemReader(Object... prefix) throws IOException {
+        return new JsonItemReader(getAsJsonStream(prefix));
+    }
+
+    /**
+     * Like getBlob(), but the content goes straight into the file through a
+     * FileChannel without ever being in the heap as a whole. The file is
+     * created or replaced.
+     * 
+     * @return the content type of the Blob. Nullable.
+     * @throws ConnectionException if the response status was not 200 or 204.
+     */
+    public String getBlobToFile(Path file, Object... prefix) throws IOException {
+        try (BlobInputStream in = getBlobStream(prefix);
+                ReadableByteChannel channel = in.getChannel();
+                FileChannel fileChannel = FileChannel.open(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (true) {
+                // A blocking source returns 0 only at the end.
+                long transferred = fileChannel.transferFrom(channel, position, 1 << 20);
+                if (transferred <= 0)
+                    break;
+                position += transferred;
+            }
+            return in.getContentType();
+        }
+    }
+
+    /**
+     * Like executeQuery(), but streaming as for getStream(). This is for
+     * large query results.
+     * 
+     * @throws ConnectionException
+     *             if the response status was not 200 OK or 204 NO_CONTENT.
+     */
+    public BlobInputStream executeQueryStream(String interfaceName, String methodName,
+            Blob requestContentBlob,
+            Blob paramsUrlParameterJsonBlob) throws IOException {
+        return commandStream("POST", "execute-query",
+                toSource(requestContentBlob),
+                paramsUrlParameterJsonBlob,
+                interfaceName, methodName);
+    }
+
+    /**
+     * Like executeGetBlobQuery(), but streaming as for getStream().
+     * 
+     * @throws ConnectionException
+     *             if the response status was not 200 OK or 204 NO_CONTENT.
+     */
+    public BlobInputStream executeGetBlobQueryStream(String interfaceName,
+            String methodName,
+            Blob requestContentBlob,
+            Blob paramsUrlParameterJsonBlob) throws IOException {
+        return commandStream("POST", "execute-get-blob-query",
+                toSource(requestContentBlob),
+                paramsUrlParameterJsonBlob,
+                interfaceName, methodName);
+    }
+
+    /**
+     * Does a get() on each of the prefixes concurrently, on virtual threads
+     * where the JDK has them, with at most setFanOutConcurrency() in flight
+     * at once. Each result is exactly what get() would return for it, and the
+     * results are in the same order as the prefixes.
+     * 
+     * @param isCancelOnFailure
+     *            if true, the first failure stops any gets not yet started
+     *            and interrupts those in flight, and it is thrown once they
+     *            have returned. Otherwise all of the gets are done, and the
+     *            failure of the earliest prefix in the list is thrown.
+     * @throws ConnectionException
+     *             if any response status was not 200 or 204.
+     */
+    public List<Blob> getAll(List<Object[]> prefixes, boolean isCancelOnFailure)
+            throws IOException {
+        List<FanOut.Call<Blob>> calls = new ArrayList<>();
+        for (Object[] prefix : prefixes)
+            calls.add(() -> get(prefix));
+        return FanOut.run(calls, fanOutConcurrency, isCancelOnFailure);
+    }
+
+    /**
+     * Like getAsJson() on each of the prefixes, but prefixes that share a
+     * common ancestor, like /Customer/"c1"/orders/[0] through [50], are read
+     * with a single getAsJson() on the ancestor, which is then sliced up
+     * here. So dozens of round trips can become one. If the JSON on the
+     * ancestor is more than setCoalescingByteBudget(), the prefixes are
+     * split into groups on narrower ancestors, or read one at a time if
+     * need be, up to setFanOutConcurrency() at once.
+     * 
+     * Each result is parsed, and has the same Items as getAsJson() would
+     * give, in the sense of flattenToList(). An empty JsonObject means there
+     * was nothing on the prefix. The results are in the order of the
+     * prefixes.
+     * 
+     * @throws ConnectionException
+     *             if any response status was not 200 or 204.
+     */
+    public List<JsonElement> getAllAsJson(List<Object[]> prefixes) throws IOException {
+        return new PrefixCoalescer(this, coalescingByteBudget, fanOutConcurrency)
+                .getAll(prefixes);
+    }
+
+    /**
+     * Does each executeQuery() concurrently like getAll().
+     * 
+     * @throws ConnectionException
+     *             if any response status was not 200 OK or 204 NO_CONTENT.
+     */
+    public List<Blob> executeQueryAll(List<QueryCall> queryCalls,
+            boolean isCancelOnFailure) throws IOException {
+        List<FanOut.Call<Blob>> calls = new ArrayList<>();
+        for (QueryCall queryCall : queryCalls) {
+            calls.add(() -> executeQuery(queryCall.interfaceName,
+                    queryCall.methodName, queryCall.requestContentBlob,
+                    queryCall.paramsUrlParameterJsonBlob));
+        }
+        return FanOut.run(calls, fanOutConcurrency, isCancelOnFailure);
+    }
+
+    /**
+     * The parameters of one executeQuery() for executeQueryAll().
+     */
+    public static class QueryCall {
+        final String interfaceName;
+        final String methodName;
+        // Nullable
+        final Blob requestContentBlob;
+        // Nullable
+        final Blob paramsUrlParameterJsonBlob;
+
+        public QueryCall(String interfaceName, String methodName,
+                Blob requestContentBlob, Blob paramsUrlParameterJsonBlob) {
+            this.interfaceName = interfaceName;
+            this.methodName = methodName;
+            this.requestContentBlob = requestContentBlob;
+            this.paramsUrlParameterJsonBlob = paramsUrlParameterJsonBlob;
+        }
+    }
+
     // These need work for the transaction parameters like wait-for-durable.
 
     //    public void commit() throws IOException {
@@ -315,16 +851,526 @@ public class InfinityDBSimpleRestClient {
 //                new Blob("", "application/infinitydb"), null);
 //    }
 
+    /**
+     * A GET that is safe to repeat, so it may be answered from the
+     * ResponseCache, and it is retried according to the RetryPolicy and
+     * hedged if hedging is on, all within the deadline.
+     * 
+     * @param request
+     *            Nullable. Gets the RequestMetrics of the request this thread
+     *            made for it, if any, for a parse to be added to.
+     */
+    private Blob readCommand(String action, RequestMetrics[] request,
+            Object... prefix) throws IOException {
+        Deadline deadline = Deadline.after(deadlineMillis);
+        ResponseCache responseCache = this.responseCache;
+        String url = getCommandUrl(host, action, null, prefix);
+        if (responseCache != null) {
+            ResponseCache.Entry entry = responseCache.get(url);
+            if (entry != null && entry.isFresh()) {
+                responseCache.hits.increment();
+                return entry.blob;
+            }
+        }
+        if (!isSingleFlight)
+            return fetch(deadline, responseCache, url, action, request, prefix);
+        // A read after a write must not share a read from before it.
+        String key = url + " " + writeCount.get();
+        return singleFlight.run(key, deadline, isSingleFlightCopying,
+                () -> fetch(deadline, responseCache, url, action, request, prefix));
+    }
+
+    /**
+     * A read that was not in the cache, or was stale.
+     * 
+     * @param responseCache
+     *            Nullable.
+     * @param request
+     *            Nullable, as for readCommand().
+     */
+    private Blob fetch(Deadline deadline, ResponseCache responseCache, String url,
+            String action, RequestMetrics[] request, Object... prefix) throws IOException {
+        ResponseCache.Entry entry = responseCache == null ? null : responseCache.get(url);
+        Map<String, String> conditionalHeaders = entry != null && entry.hasValidators()
+                ? entry.getConditionalHeaders() : null;
+        long generation = responseCache == null ? 0 : responseCache.getGeneration();
+        ReadResponse response = retriedRead(deadline, action, conditionalHeaders, prefix);
+        if (request != null)
+            request[0] = response.metrics;
+        if (responseCache == null)
+            return response.blob;
+        if (response.status == 304) {
+            responseCache.revalidated(entry);
+            return entry.blob;
+        }
+        responseCache.misses.increment();
+        responseCache.put(url, getQuotedUrl(prefix), response.blob,
+                response.eTag, response.lastModified, generation);
+        return response.blob;
+    }
+
+    private ReadResponse retriedRead(Deadline deadline, String action,
+            Map<String, String> conditionalHeaders, Object... prefix) throws IOException {
+        RetryPolicy retryPolicy = this.retryPolicy;
+        for (int attempt = 1;; attempt++) {
+            try {
+                return hedgedRead(deadline, action, conditionalHeaders, prefix);
+            } catch (IOException e) {
+                if (attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(e))
+                    throw e;
+                long delayMillis = retryPolicy.getDelayMillis(attempt, e);
+                if (delayMillis < 0 || deadline != null && deadline.remainingNanos()
+                        <= TimeUnit.MILLISECONDS.toNanos(delayMillis))
+                    throw e;
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException interrupted =
+                            new InterruptedIOException("Interrupted before a retry");
+                    interrupted.addSuppressed(e);
+                    throw interrupted;
+                }
+                retryCount.increment();
+            }
+        }
+    }
+
+    /**
+     * One attempt at a read, which is two requests if the first is slower
+     * than the p95 and hedging is on.
+     */
+    private ReadResponse hedgedRead(Deadline deadline, String action,
+            Map<String, String> conditionalHeaders, Object... prefix) throws IOException {
+        LatencyTracker latencyTracker = latencyTrackers.computeIfAbsent(
+                action == null ? "get" : action, a -> new LatencyTracker());
+        long hedgeAfterNanos = isHedging
+                ? latencyTracker.getPercentileNanos(HEDGE_PERCENTILE) : -1;
+        if (hedgeAfterNanos < 0)
+            return timedRead(latencyTracker, deadline, action, conditionalHeaders, prefix);
+        ExecutorCompletionService<ReadResponse> completionService =
+                new ExecutorCompletionService<>(getHedgeExecutor());
+        List<Future<ReadResponse>> futures = new ArrayList<>();
+        futures.add(completionService.submit(() -> timedRead(
+                latencyTracker, deadline, action, conditionalHeaders, prefix)));
+        IOException failure = null;
+        try {
+            for (int pending = 1; pending > 0;) {
+                boolean isHedged = futures.size() > 1;
+                long waitNanos = isHedged ? Long.MAX_VALUE : hedgeAfterNanos;
+                if (deadline != null)
+                    waitNanos = Math.min(waitNanos, deadline.remainingNanos());
+                Future<ReadResponse> done =
+                        completionService.poll(waitNanos, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (deadline != null && deadline.isExpired())
+                        throw deadline.exceeded();
+                    if (!isHedged) {
+                        futures.add(completionService.submit(() -> timedRead(
+                                latencyTracker, deadline, action, conditionalHeaders, prefix)));
+                        hedgeCount.increment();
+                        pending++;
+                    }
+                    continue;
+                }
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    // Wait for the other request, if there is one.
+                    IOException cause = e.getCause() instanceof IOException
+                            ? (IOException)e.getCause() : new IOException(e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        // Only add to an exception no other thread has seen.
+                        failure = ConnectionException.copyOf(failure);
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a response");
+        } finally {
+            // The loser, if any, is abandoned.
+            for (Future<ReadResponse> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    private ReadResponse timedRead(LatencyTracker latencyTracker, Deadline deadline,
+            String action, Map<String, String> conditionalHeaders, Object... prefix)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        try (BlobInputStream in = commandStream(deadline, "GET", action, null, null,
+                conditionalHeaders, prefix)) {
+            ReadResponse response = new ReadResponse(in.getStatus(),
+                    in.getStatus() == 304 ? null : in.readBlob(),
+                    in.getHeader("ETag"), in.getHeader("Last-Modified"), in.metrics);
+            latencyTracker.record(System.nanoTime() - startNanos);
+            return response;
+        }
+    }
+
+    /**
+     * The Blob from a read, along with what the ResponseCache needs.
+     */
+    private static class ReadResponse {
+        final int status;
+        // Null for 304 Not Modified.
+        final Blob blob;
+        // Nullable
+        final String eTag;
+        // Nullable
+        final String lastModified;
+        // Nullable. Only if there is a ClientMetricsListener.
+        final RequestMetrics metrics;
+
+        ReadResponse(int status, Blob blob, String eTag, String lastModified,
+                RequestMetrics metrics) {
+            this.status = status;
+            this.blob = blob;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * Timed for the ClientMetricsListener, if there is one.
+     * 
+     * @param request
+     *            Nullable. The read the Blob came from, to add the parse
+     *            time to.
+     */
+    JsonElement parseJson(Blob blob, boolean isLazy, RequestMetrics request) {
+        ClientMetricsListener metricsListener = this.metricsListener;
+        if (metricsListener == null)
+            return PrefixCoalescer.parse(blob, isLazy);
+        long startNanos = System.nanoTime();
+        JsonElement element = PrefixCoalescer.parse(blob, isLazy);
+        long parseNanos = System.nanoTime() - startNanos;
+        if (request != null)
+            request.parsed(parseNanos);
+        metricsListener.onParse(request, blob.length(), parseNanos);
+        return element;
+    }
+
+    private synchronized ExecutorService getHedgeExecutor() {
+        if (hedgeExecutor == null)
+            hedgeExecutor = FanOut.newCachedExecutor();
+        return hedgeExecutor;
+    }
+
     /**
      *  The prefix may be a nested Object[] of components to be URL-quoted.
      */
     private Blob command(String method, String action,
-            Blob requestBlob,
+            BlobSource body,
+            Blob paramsUrlParameterBlob,
+            Object... prefix) throws IOException {
+        try (BlobInputStream in = commandStream(method, action,
+                body, paramsUrlParameterBlob, prefix)) {
+            // SUCCESS. Blob may still be empty if that's what we want.
+            return in.readBlob();
+        }
+    }
+
+    /**
+     * Like command(), but the content is left to be read from the stream.
+     * The status has already been checked.
+     */
+    private BlobInputStream commandStream(String method, String action,
+            BlobSource body,
             Blob paramsUrlParameterBlob,
             Object... prefix) throws IOException {
-        if (method.equalsIgnoreCase("GET") && requestBlob != null)
+        try {
+            return commandStream(Deadline.after(deadlineMillis), method, action,
+                    body, paramsUrlParameterBlob, null, prefix);
+        } finally {
+            // Even a failed write may have happened.
+            if (method.equalsIgnoreCase("POST")) {
+                writeCount.incrementAndGet();
+                invalidateCache(action, prefix);
+            }
+        }
+    }
+
+    /**
+     * @param deadline
+     *            Nullable.
+     * @param conditionalHeaders
+     *            Nullable. Like If-None-Match, for a GET that can be
+     *            answered with 304 Not Modified and no content.
+     */
+    private BlobInputStream commandStream(Deadline deadline, String method,
+            String action,
+            BlobSource body,
+            Blob paramsUrlParameterBlob,
+            Map<String, String> conditionalHeaders,
+            Object... prefix) throws IOException {
+        if (method.equalsIgnoreCase("GET") && body != null)
             throw new RuntimeException(
                     "Method GET is not compatible with sending a Blob");
+        String path = getCommandUrl("", action, paramsUrlParameterBlob, prefix);
+        HostBalancer hostBalancer = this.hostBalancer;
+        HostBalancer.Host replica = hostBalancer != null && method.equalsIgnoreCase("GET")
+                ? hostBalancer.choose(this::isAlive) : null;
+        String url = (replica == null ? host : replica.host) + path;
+        long requestBytes = body == null ? 0 : Math.max(0, body.getContentLength());
+        ClientMetricsListener metricsListener = this.metricsListener;
+        RestCallEvent event = RestCallEvent.begin(method,
+                action == null ? "get" : action, prefix, requestBytes);
+        if (metricsListener == null && event == null)
+            return balancedSend(replica, deadline, method, url, body,
+                    conditionalHeaders, null);
+        RequestMetrics metrics = null;
+        if (metricsListener != null) {
+            // The queries have the interface and method names for the prefix.
+            String queryName = action != null && action.startsWith("execute")
+                    && prefix.length == 2 ? prefix[0] + "/" + prefix[1] : null;
+            metrics = new RequestMetrics(method, url,
+                    action == null ? "get" : action, queryName, requestBytes);
+            metricsListener.onRequestStart(metrics);
+        }
+        BlobInputStream in;
+        try {
+            in = balancedSend(replica, deadline, method, url, body,
+                    conditionalHeaders, metrics);
+        } catch (IOException | RuntimeException e) {
+            int status = e instanceof ConnectionException
+                    ? ((ConnectionException)e).getStatusCode() : 0;
+            endRequest(metricsListener, metrics, event, status, 0, e);
+            throw e;
+        }
+        RequestMetrics requestMetrics = metrics;
+        in.metrics = metrics;
+        in.onClose = () -> endRequest(metricsListener, requestMetrics, event,
+                in.getStatus(), in.bytesRead, null);
+        return in;
+    }
+
+    // The metrics and event are nullable.
+    private static void endRequest(ClientMetricsListener metricsListener,
+            RequestMetrics metrics, RestCallEvent event, int status,
+            long responseBytes, Throwable failure) {
+        if (metrics != null) {
+            metrics.end(status, responseBytes, failure);
+            metricsListener.onRequestEnd(metrics);
+        }
+        if (event != null)
+            event.end(status, responseBytes);
+    }
+
+    /**
+     * Like sendCommand(), telling the replica how it went.
+     * 
+     * @param replica
+     *            Nullable if the request is not balanced.
+     */
+    private BlobInputStream balancedSend(HostBalancer.Host replica, Deadline deadline,
+            String method, String url, BlobSource body,
+            Map<String, String> conditionalHeaders, RequestMetrics metrics)
+            throws IOException {
+        if (replica == null)
+            return sendCommand(deadline, method, url, body, conditionalHeaders, metrics);
+        long startNanos = System.nanoTime();
+        BlobInputStream in;
+        try {
+            in = sendCommand(deadline, method, url, body, conditionalHeaders, metrics);
+        } catch (IOException | RuntimeException e) {
+            replica.failed(System.nanoTime() - startNanos, e);
+            throw e;
+        }
+        replica.succeeded(System.nanoTime() - startNanos);
+        return in;
+    }
+
+    /**
+     * For the HostBalancer, whether an ejected host is back. The probe is a
+     * getBlob() on the root, which has no Blob and so no content. Any status
+     * short of a server error will do, even 401 Unauthorized.
+     */
+    private boolean isAlive(String host) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (userName != null)
+            headers.put("Authorization", getBasicAuthorization(userName, passWord));
+        int timeoutMillis = connectTimeoutMillis > 0 ? connectTimeoutMillis
+                : PROBE_TIMEOUT_MILLIS;
+        try {
+            TransportResponse response = getTransport().send("GET",
+                    new URL(getCommandUrl(host, "get-blob", null)), headers, null,
+                    timeoutMillis, timeoutMillis);
+            response.close();
+            return response.status < 500;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Like commandStream(), with the URL already made.
+     * 
+     * @param metrics
+     *            Nullable. Gets the timing of each phase.
+     */
+    private BlobInputStream sendCommand(Deadline deadline, String method,
+            String url,
+            BlobSource body,
+            Map<String, String> conditionalHeaders,
+            RequestMetrics metrics) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (userName != null)
+            headers.put("Authorization", getBasicAuthorization(userName, passWord));
+        if (method.equalsIgnoreCase("POST") && body != null)
+            headers.put("Content-Type", body.getContentType());
+        if (isAcceptCompression)
+            headers.put("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+        if (conditionalHeaders != null)
+            headers.putAll(conditionalHeaders);
+        TransportResponse response = limitedSend(deadline, method, new URL(url),
+                headers, body, metrics);
+        if (metrics != null)
+            metrics.responded(response);
+        if (response.status == 304 && conditionalHeaders != null)
+            return new BlobInputStream(response);
+        if (!response.isSuccess()) {
+            response.close();
+            throw new ConnectionException(response.status, response.message,
+                    response.getRetryAfterMillis());
+        }
+        String contentEncoding = response.getHeader("Content-Encoding");
+        if (ContentEncoding.isIdentity(contentEncoding))
+            return new BlobInputStream(response);
+        try {
+            // The uncompressed length is not known until the end.
+            return new BlobInputStream(response, ContentEncoding.decode(
+                    response.in, contentEncoding, compressionStats), -1);
+        } catch (IOException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Send within the concurrency limit, if there is one, and tell it how
+     * the server took it. A request counts as in flight until its status
+     * arrives.
+     */
+    private TransportResponse limitedSend(Deadline deadline, String method, URL url,
+            Map<String, String> headers, BlobSource body, RequestMetrics metrics)
+            throws IOException {
+        AdaptiveConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+        if (concurrencyLimiter != null)
+            concurrencyLimiter.acquire(deadline);
+        if (metrics != null)
+            metrics.sent();
+        if (concurrencyLimiter == null)
+            return compressedSend(deadline, method, url, headers, body);
+        long startNanos = System.nanoTime();
+        TransportResponse response;
+        try {
+            response = compressedSend(deadline, method, url, headers, body);
+        } catch (InterruptedIOException e) {
+            // Including SocketTimeoutException and a passed deadline.
+            concurrencyLimiter.onDropped(-1);
+            throw e;
+        } catch (HttpTimeoutException e) {
+            concurrencyLimiter.onDropped(-1);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            concurrencyLimiter.onIgnored();
+            throw e;
+        }
+        if (response.status == 429 || response.status == 503)
+            concurrencyLimiter.onDropped(response.getRetryAfterMillis());
+        else
+            concurrencyLimiter.onSuccess(System.nanoTime() - startNanos);
+        return response;
+    }
+
+    // Gzip the body if it is worth it and the server has not refused that.
+    private TransportResponse compressedSend(Deadline deadline, String method, URL url,
+            Map<String, String> headers, BlobSource body) throws IOException {
+        BlobSource compressedBody = compressRequest(body);
+        TransportResponse response;
+        if (compressedBody != null) {
+            Map<String, String> compressedHeaders = new LinkedHashMap<>(headers);
+            compressedHeaders.put("Content-Encoding", "gzip");
+            response = send(deadline, method, url, compressedHeaders, compressedBody);
+            if (response.status == 415) {
+                // Unsupported Media Type: the server can't take gzip.
+                response.close();
+                isRequestCompressionRefused = true;
+                response = send(deadline, method, url, headers, body);
+            }
+        } else {
+            response = send(deadline, method, url, headers, body);
+        }
+        return response;
+    }
+
+    // After a write or a query.
+    private void invalidateCache(String action, Object... prefix) throws IOException {
+        ResponseCache responseCache = this.responseCache;
+        if (responseCache == null)
+            return;
+        if (action != null && action.startsWith("execute")) {
+            if (responseCache.isQueryInvalidating)
+                responseCache.invalidateAll();
+        } else {
+            responseCache.invalidatePath(getQuotedUrl(prefix));
+        }
+    }
+
+    // The timeouts are cut short to what remains before the deadline.
+    private TransportResponse send(Deadline deadline, String method, URL url,
+            Map<String, String> headers, BlobSource body) throws IOException {
+        return getTransport().send(method, url, headers, body,
+                Deadline.timeoutWithin(deadline, connectTimeoutMillis),
+                Deadline.timeoutWithin(deadline, readTimeoutMillis));
+    }
+
+    // Nullable if the body is not to be compressed.
+    private BlobSource compressRequest(BlobSource body) throws IOException {
+        if (body == null || body.getBlob() == null || requestCompressionThreshold <= 0
+                || isRequestCompressionRefused
+                || body.getContentLength() < requestCompressionThreshold)
+            return null;
+        Blob blob = body.getBlob();
+        byte[] compressed = ContentEncoding.gzip(blob.data);
+        compressionStats.requestBytesUncompressed.add(blob.length());
+        compressionStats.requestBytesCompressed.add(compressed.length);
+        return BlobSource.of(new Blob(compressed, blob.getContentType()));
+    }
+
+    // Nullable
+    static BlobSource toSource(Blob blob) {
+        return blob == null ? null : BlobSource.of(blob);
+    }
+
+    synchronized HttpTransport getTransport() throws IOException {
+        if (transport == null) {
+            transport = isHttp2
+                    ? new Http2Transport(isDisableSSLSecurity, maxConcurrentStreams,
+                            connectTimeoutMillis)
+                    : connectionPool != null
+                    ? new PooledTransport(connectionPool, isDisableSSLSecurity,
+                            connectTimeoutMillis)
+                    : new UrlConnectionTransport(isDisableSSLSecurity);
+        }
+        return transport;
+    }
+
+    /**
+     * The complete URL for a command, with the quoted prefix and the query
+     * string holding the action and params. The async client builds its
+     * URLs here too, so both quote identically.
+     */
+    static String getCommandUrl(String host, String action,
+            Blob paramsUrlParameterBlob, Object... prefix) throws IOException {
         String urlString = host + getQuotedUrl(prefix);
         UrlQueryString queryString = new UrlQueryString();
         queryString.add("action", action);
@@ -336,64 +1382,16 @@ public class InfinityDBSimpleRestClient {
              new JsonParser(paramsUrlParameter).parse();
             queryString.add("params", paramsUrlParameter);
         }
-        URL url = new URL(urlString + queryString.queryString);
-        HttpURLConnection urlConnection =
-                (HttpURLConnection)url.openConnection();
-        if (isDisableSSLSecurity && urlConnection instanceof HttpsURLConnection) {
-            disableSSLSecurity((HttpsURLConnection)urlConnection);
-        }
-        urlConnection.setRequestMethod(method);
-        // We always do input, but often it will be empty.
-        urlConnection.setDoInput(true);
-        if (userName != null) {
-            String credentials = userName + ":" + passWord;
-            String encodedCredentials =
-                    Base64.getEncoder().encodeToString(credentials.getBytes());
-            urlConnection.setRequestProperty("Authorization",
-                    "Basic " + encodedCredentials);
-        }
-        if (method.equalsIgnoreCase("POST") && requestBlob != null) {
-            urlConnection.setDoOutput(true);
-            urlConnection.setRequestProperty("Content-Type", requestBlob.getContentType());
-        }
-        urlConnection.connect();
-        
-        // System.out.println("Connection: " +
-        // urlConnection.getHeaderField("Connection"));
-        
-        if (method.equalsIgnoreCase("POST") && requestBlob != null) {
-            OutputStream out = urlConnection.getOutputStream();
-            out.write(requestBlob.data);
-            out.flush();
-        }
-        try {
-            // Throws 403 etc with IOException("Server returned response code 403 for
-            // URL: ...")
-            InputStream in = urlConnection.getInputStream();
-            // When we get zlib working, the content length will become
-            // -1 until the data is all read. Currently, then, there is
-            // a limit to the blob size.
-            long contentLength = urlConnection.getContentLengthLong();
-            String contentType = urlConnection.getContentType();
-            int status = urlConnection.getResponseCode();
-            String msg = urlConnection.getResponseMessage();
-            Blob readBlob = new Blob((int)contentLength, contentType);
-            readBlob.readFully(in);
-            in.close();
-            // does not prevent keep-alive.
-            urlConnection.disconnect();
-            if (status == HttpURLConnection.HTTP_OK 
-                    || status == HttpURLConnection.HTTP_NO_CONTENT)
-                // SUCCESS. Blob may still be empty if that's what we want.
-                return readBlob;
-            throw new ConnectionException(status, msg);
-        } catch (IOException e) {
-            int status = urlConnection.getResponseCode();
-            String msg = urlConnection.getResponseMessage();
-            throw new ConnectionException(status, msg);
-        }
+        return urlString + queryString.queryString;
     }
-    
+
+    static String getBasicAuthorization(String userName, String passWord) {
+        String credentials = userName + ":" + passWord;
+        String encodedCredentials =
+                Base64.getEncoder().encodeToString(credentials.getBytes());
+        return "Basic " + encodedCredentials;
+    }
+
     static class UrlQueryString {
         String queryString = "";
         void add(String param, String value) throws UnsupportedEncodingException {
@@ -427,52 +1425,12 @@ public class InfinityDBSimpleRestClient {
             if (o instanceof String)
                 o = JsonParser.convertToJsonString((String)o);
             else if (o instanceof Date)
-                o = JsonParser.ISO_SIMPLE_DATE_FORMAT.format((Date)o);
+                o = JsonParser.ISO_SIMPLE_DATE_FORMAT.get().format((Date)o);
             String quoted = URLEncoder.encode(o.toString(), "UTF-8");
             sb.append("/").append(quoted);
         }
         return sb.toString();
     }
-    
-    /**
-     * Don't use this in production!!!!
-     */
-    void disableSSLSecurity(HttpsURLConnection httpsURLConnection) throws IOException {
-        try {
-            httpsURLConnection.setHostnameVerifier(
-                    new HostnameVerifier() {
-                        @Override
-                        public boolean verify(String hostname,
-                                SSLSession session) {
-                            // Dangerous. Don't do this unless absolutely
-                            // necessary!
-                            return true;
-                        }
-                    });
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, new TrustManager[] {new TrustAnythingTrustManager()}, 
-                    new SecureRandom());
-            httpsURLConnection.setSSLSocketFactory(sslContext.getSocketFactory());
-        } catch (Exception e) {
-            throw new IOException(e);
-        }
-    }
-}
-
-class Flatten {
-    static Object[] flatten(Object... o) {
-        return flatten(new ArrayList<>(), o).toArray();
-    }
-    static List<Object> flatten(List<Object> list, Object o) {
-        if (o instanceof Object[]) {
-            for (Object e : (Object[])o) {
-                flatten(list, e);
-            }
-        } else {
-            list.add(o);
-        }
-        return list;
-    }
 }
 
 /**
@@ -484,21 +1442,3 @@ class IgnoreHostNameVerifier implements HostnameVerifier {
         return true;
     }
 }
-
-class TrustAnythingTrustManager implements X509TrustManager {
-
-    @Override
-    public void checkClientTrusted(X509Certificate[] arg0, String arg1)
-            throws CertificateException {
-    }
-
-    @Override
-    public void checkServerTrusted(X509Certificate[] arg0, String arg1)
-            throws CertificateException {
-    }
-
-    @Override
-    public X509Certificate[] getAcceptedIssuers() {
-        return new X509Certificate[0];
-    }
-}
@@ -124,9 +124,18 @@ public abstract class JsonElement implements
 
     // Write as JSON underscore-quoted or not.
     // indent is 0 for single-spaced, otherwise # spaces per level
+    // A slow write shows up in JDK Flight Recorder as a JsonWriteEvent.
     public void writeJson(Writer writer, boolean isUnderscoreQuoting, 
             int indent, String eol) throws IOException {
+        JsonWriteEvent event = new JsonWriteEvent();
+        event.begin();
         writeJson(writer, isUnderscoreQuoting, indent, eol, 0);
+        event.end();
+        if (event.shouldCommit()) {
+            event.elementType = getClass().getSimpleName();
+            event.entries = isValue() ? 0 : size();
+            event.commit();
+        }
     }
 
     // This loops over both objects and lists the same, because they are
@@ -220,7 +229,20 @@ public abstract class JsonElement implements
         }
     }
     
+    // A slow flatten shows up in JDK Flight Recorder as a JsonFlattenEvent.
     public List<List<Object>> flattenToList() {
+        JsonFlattenEvent event = new JsonFlattenEvent();
+        event.begin();
+        List<List<Object>> suffixes = flatten();
+        event.end();
+        if (event.shouldCommit()) {
+            event.items = suffixes.size();
+            event.commit();
+        }
+        return suffixes;
+    }
+
+    List<List<Object>> flatten() {
         List<List<Object>> suffixes = new ArrayList<>();
         if (isEmpty())
             return suffixes;
@@ -232,7 +254,7 @@ public abstract class JsonElement implements
                 suffixes.add(suffix);
                 continue;
             }
-            List<List<Object>> nestedSuffixes = v.flattenToList();
+            List<List<Object>> nestedSuffixes = v.flatten();
             for (List<Object> nestedSuffix : nestedSuffixes) {
                 List<Object> concatenatedSuffix = new ArrayList<>(nestedSuffix);
                 concatenatedSuffix.add(0, k);
@@ -0,0 +1,229 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the structure of some underscore-quoted JSON is, for
+ * JsonParser.parseLazily(). This is the offsets of the brackets, colons and
+ * commas outside of strings, in order, as found by a JsonScanner for UTF-8,
+ * and for each object or list, the entry that closes it. The keys and
+ * values between them are left in the source until a JsonObject or
+ * JsonList asks for its own, and a nested object or list can be stepped
+ * over whole without looking inside.
+ * 
+ * The index and the source are held until every object and list made from
+ * them has been decoded.
+ */
+final class JsonIndex {
+    // Decodes the keys and values, from the same source.
+    private final JsonParser parser;
+    // Where each bracket, colon or comma is in the source.
+    private final int[] positions;
+    // For an entry that opens an object or list, the entry that closes it.
+    private final int[] closes;
+    final int count;
+
+    /**
+     * Index the object or list at the parser's position. The brackets must
+     * match, but nothing else is checked until decoded. Anything after the
+     * end is not looked at, as for JsonParser.parse().
+     */
+    JsonIndex(JsonParser parser) {
+        this.parser = parser;
+        int[] positions = new int[64];
+        int[] closes = new int[64];
+        int n = 0;
+        // The entries of the objects and lists not yet closed.
+        int[] opens = new int[16];
+        int depth = 0;
+        // UTF-8 skips through strings a long at a time, a String a char at a time.
+        JsonScanner scanner = parser.bytes == null ? null
+                : new JsonScanner(parser.bytes, parser.pos, parser.limit);
+        for (int i = parser.pos - 1;;) {
+            i = scanner != null ? scanner.next() : nextSeparator(i + 1);
+            if (i < 0)
+                break;
+            char c = parser.charAt(i);
+            if (n == positions.length) {
+                positions = Arrays.copyOf(positions, n * 2);
+                closes = Arrays.copyOf(closes, n * 2);
+            }
+            positions[n] = i;
+            if (c == '{' || c == '[') {
+                if (depth == opens.length)
+                    opens = Arrays.copyOf(opens, depth * 2);
+                opens[depth++] = n;
+            } else if (c == '}' || c == ']') {
+                int open = opens[--depth];
+                if (parser.charAt(positions[open]) == '{' ? c != '}' : c != ']')
+                    throw new RuntimeException(parser.charAt(positions[open]) == '{'
+                            ? "Missing } in JSON" : "Missing ] in JSON");
+                closes[open] = n;
+                if (depth == 0) {
+                    this.positions = positions;
+                    this.closes = closes;
+                    this.count = n + 1;
+                    return;
+                }
+            }
+            n++;
+        }
+        if (scanner != null && scanner.isInString())
+            throw new RuntimeException("Unterminated string in JSON");
+        throw new RuntimeException("JSON string terminated without complete parse");
+    }
+
+    // The position of the next separator outside of a string, or -1 at the end.
+    private int nextSeparator(int i) {
+        for (; i < parser.limit; i++) {
+            char c = parser.charAt(i);
+            if (c == '"')
+                i = skipString(i + 1);
+            else if (JsonParser.isSeparator(c))
+                return i;
+        }
+        return -1;
+    }
+
+    // The position of the closing quote of the string starting at i.
+    private int skipString(int i) {
+        while (true) {
+            if (i >= parser.limit)
+                throw new RuntimeException("Unterminated string in JSON");
+            char c = parser.charAt(i);
+            if (c == '"')
+                return i;
+            i += c == '\\' ? 2 : 1;
+        }
+    }
+
+    // The outermost object or list, not yet decoded.
+    JsonElement getRoot() {
+        return newContainer(0);
+    }
+
+    private JsonElement newContainer(int open) {
+        return parser.charAt(positions[open]) == '{'
+                ? new JsonObject(this, open) : new JsonList(this, open);
+    }
+
+    /**
+     * Put the entries of the object opened at the entry into the map. Values
+     * that are objects or lists go in undecoded.
+     */
+    synchronized void decodeObject(int open, Map<JsonValue, JsonElement> map) {
+        int close = closes[open];
+        if (close == open + 1 && isBlank(open))
+            return;
+        int separator = open;
+        while (true) {
+            int start = positions[separator] + 1;
+            Object key = decodeToken(separator, "Expected ':' in JSON");
+            if (key == null)
+                throw new RuntimeException("Unparseable token in JSON: "
+                        + parser.substring(start, positions[separator + 1]).trim());
+            int colon = separator + 1;
+            if (parser.charAt(positions[colon]) != ':')
+                throw new RuntimeException("Expected ':' in JSON");
+            separator = decodeValue(colon, map, new JsonValue(key), "Missing } in JSON");
+            if (separator == close)
+                return;
+            if (parser.charAt(positions[separator]) != ',')
+                throw new RuntimeException("Missing } in JSON");
+        }
+    }
+
+    // Add the elements of the list opened at the entry to the list.
+    synchronized void decodeList(int open, List<JsonElement> list) {
+        int close = closes[open];
+        if (close == open + 1 && isBlank(open))
+            return;
+        int separator = open;
+        while (true) {
+            separator = decodeValue(separator, list, null, "Missing ] in JSON");
+            if (separator == close)
+                return;
+            if (parser.charAt(positions[separator]) != ',')
+                throw new RuntimeException("Missing ] in JSON");
+        }
+    }
+
+    /**
+     * Add the value after the entry to the map under the key, or else to the
+     * list.
+     * 
+     * @return the entry after the value.
+     */
+    @SuppressWarnings("unchecked")
+    private int decodeValue(int before, Object container, JsonValue key,
+            String missingMessage) {
+        JsonElement value;
+        int after;
+        int next = before + 1;
+        char c = parser.charAt(positions[next]);
+        if ((c == '{' || c == '[') && isBlank(before)) {
+            value = newContainer(next);
+            after = closes[next] + 1;
+        } else {
+            value = new JsonValue(decodeToken(before, missingMessage));
+            after = next;
+        }
+        if (key != null)
+            ((Map<JsonValue, JsonElement>)container).put(key, value);
+        else
+            ((List<JsonElement>)container).add(value);
+        return after;
+    }
+
+    /**
+     * The single key or value between the entry and the next, as
+     * JsonParser.parse() would give it.
+     * 
+     * @param extraMessage
+     *            for when there is more than one token.
+     */
+    private Object decodeToken(int before, String extraMessage) {
+        int end = positions[before + 1];
+        parser.pos = positions[before] + 1;
+        Object token = parser.parseToken();
+        while (parser.pos < end && parser.charAt(parser.pos) <= ' ')
+            parser.pos++;
+        if (parser.pos != end)
+            throw new RuntimeException(extraMessage);
+        return token;
+    }
+
+    // Whether there is only white space between the entry and the next.
+    private boolean isBlank(int before) {
+        int end = positions[before + 1];
+        for (int i = positions[before] + 1; i < end; i++) {
+            if (parser.charAt(i) > ' ')
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,158 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Turns underscore-quoted JSON straight into Items as it is read, without
+ * a JsonElement tree in between. The Items are the ones flattenToList()
+ * would give for the parsed JSON, but in the order of the text, and as
+ * arrays of the components themselves, with no JsonValue wrappers, and list
+ * positions as IdbIndex. An empty object or list gives no Item.
+ * 
+ * The path to the current place is kept on one stack that is reused, so
+ * each Item costs only its own length, and with a stream such as from
+ * getAsJsonStream() nothing needs to be held but the buffer:
+ * 
+ * <pre>
+ * try (JsonItemReader items = client.getItemReader(new IdbClass("Orders"))) {
+ *     items.forEachRemaining(item -> consume(item));
+ * }
+ * </pre>
+ * 
+ * As an Iterator, an IOException from the stream comes out wrapped in an
+ * UncheckedIOException. Use nextItem() to get it as is.
+ */
+public class JsonItemReader implements Iterator<Object[]>, Closeable {
+    final JsonReader reader;
+    // The components of the current path, up to pathLength.
+    private Object[] path = new Object[16];
+    private int pathLength;
+    /*
+     * For each open object or list, the pathLength at its start, and for a
+     * list the index of its next element, or -1 for an object.
+     */
+    private int[] frameStarts = new int[16];
+    private long[] nextIndexes = new long[16];
+    private int frameCount;
+    // Read by hasNext() but not yet returned by next().
+    private Object[] pending;
+
+    public JsonItemReader(InputStream in) {
+        this(new JsonReader(in));
+    }
+
+    // For JSON from anywhere, or with a reader set up some other way.
+    public JsonItemReader(JsonReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * The next Item, built as the JSON is read.
+     * 
+     * @return null at the end of the JSON.
+     */
+    public Object[] nextItem() throws IOException {
+        if (pending != null) {
+            Object[] item = pending;
+            pending = null;
+            return item;
+        }
+        for (JsonReader.Event event; (event = reader.next()) != null;) {
+            switch (event) {
+            case START_OBJECT:
+            case START_LIST:
+                pushIndex();
+                if (frameCount == frameStarts.length) {
+                    frameStarts = Arrays.copyOf(frameStarts, frameCount * 2);
+                    nextIndexes = Arrays.copyOf(nextIndexes, frameCount * 2);
+                }
+                frameStarts[frameCount] = pathLength;
+                nextIndexes[frameCount] = event == JsonReader.Event.START_LIST ? 0 : -1;
+                frameCount++;
+                break;
+            case END_OBJECT:
+            case END_LIST:
+                pathLength = frameStarts[--frameCount];
+                break;
+            case KEY:
+                pathLength = frameStarts[frameCount - 1];
+                push(reader.getComponent());
+                break;
+            case VALUE:
+                pushIndex();
+                Object[] item = Arrays.copyOf(path, pathLength + 1);
+                item[pathLength] = reader.getComponent();
+                return item;
+            }
+        }
+        return null;
+    }
+
+    // Inside a list, a value or container is under the index of its position.
+    private void pushIndex() {
+        if (frameCount == 0 || nextIndexes[frameCount - 1] < 0)
+            return;
+        pathLength = frameStarts[frameCount - 1];
+        push(new IdbIndex(nextIndexes[frameCount - 1]++));
+    }
+
+    private void push(Object component) {
+        if (pathLength == path.length)
+            path = Arrays.copyOf(path, pathLength * 2);
+        path[pathLength++] = component;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null) {
+            try {
+                pending = nextItem();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return pending != null;
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Object[] item = pending;
+        pending = null;
+        return item;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -40,6 +40,9 @@ import java.util.Set;
  */
 public class JsonList extends JsonElement {
     private final List<JsonElement> list = new ArrayList<>();
+    // Set until the elements are decoded, for JsonParser.parseLazily().
+    private volatile JsonIndex index;
+    private int indexEntry;
 
     JsonList() {
     }
@@ -48,6 +51,31 @@ public class JsonList extends JsonElement {
         insert(isCompactTips, objects);
     }
 
+    // Not decoded until used.
+    JsonList(JsonIndex index, int indexEntry) {
+        this.index = index;
+        this.indexEntry = indexEntry;
+    }
+
+    private List<JsonElement> list() {
+        if (index != null)
+            decode();
+        return list;
+    }
+
+    private synchronized void decode() {
+        if (index == null)
+            return;
+        try {
+            index.decodeList(indexEntry, list);
+        } catch (RuntimeException e) {
+            // Still undecoded, so every use throws.
+            list.clear();
+            throw e;
+        }
+        index = null;
+    }
+
     /*
      * Implement this as if it were a set Note this is a bit expensive: we
      * construct a new HashSet. Hopefully, this is rare, and you use the
@@ -59,7 +87,7 @@ public class JsonList extends JsonElement {
     @Override
     public Set<JsonValue> keySet() {
         Set ks = new HashSet<JsonValue>();
-        for (int i = 0; i < list.size(); i++) {
+        for (int i = 0; i < list().size(); i++) {
             ks.add(new JsonValue(new Long(i)));
         }
         return ks;
@@ -73,7 +101,7 @@ public class JsonList extends JsonElement {
 
             @Override
             public boolean hasNext() {
-                return pos < list.size();
+                return pos < list().size();
             }
 
             @Override
@@ -90,7 +118,7 @@ public class JsonList extends JsonElement {
             key = ((JsonValue)key).value();
         long index = key instanceof IdbIndex  ? ((IdbIndex)key).getIndex() 
                    : key instanceof Number ? ((Number)key).longValue() : -1;
-        return index < 0 || index >= list.size() ? null : list.get((int)index);
+        return index < 0 || index >= list().size() ? null : list().get((int)index);
     }
 
     /**
@@ -100,7 +128,7 @@ public class JsonList extends JsonElement {
      * wrap a 'bare' object like IdbClass or Long in a JsonValue to add it.
      */
     public JsonList add(Object e) {
-        list.add(e instanceof JsonElement ? (JsonElement) e : new JsonValue(e));
+        list().add(e instanceof JsonElement ? (JsonElement) e : new JsonValue(e));
         return this;
     }
 
@@ -128,32 +156,32 @@ public class JsonList extends JsonElement {
     public boolean equals(Object other) {
         if (!(other instanceof JsonList))
             return false;
-        return list.equals(((JsonList)other).list);
+        return list().equals(((JsonList)other).list());
     }
 
     @Override
     public int hashCode() {
-        return list.hashCode();
+        return list().hashCode();
     }
 
     // We might not even want this.
     @Override
     public Set<Entry<JsonValue, JsonElement>> entrySet() {
         Set<Entry<JsonValue, JsonElement>> set = new HashSet<>();
-        for (int i = 0; i < list.size(); i++)
+        for (int i = 0; i < list().size(); i++)
             set.add(new SimpleEntry(new JsonValue(new Long(i)),
-                    list.get(i)));
+                    list().get(i)));
         return set;
     }
 
     @Override
     public int size() {
-        return list.size();
+        return list().size();
     }
 
     @Override
     public boolean isEmpty() {
-        return list.isEmpty();
+        return list().isEmpty();
     }
 
     @Override
@@ -162,14 +190,14 @@ public class JsonList extends JsonElement {
             key = ((JsonValue)key).value();
         if (!(key instanceof Long))
             return false;
-        return list.size() > ((Long)key).intValue();
+        return list().size() > ((Long)key).intValue();
     }
 
     @Override
     public boolean containsValue(Object value) {
         if (!(value instanceof JsonValue))
             value = new JsonValue(value);
-        return list.contains(value);
+        return list().contains(value);
     }
 
     /**
@@ -192,15 +220,15 @@ public class JsonList extends JsonElement {
             throw new RuntimeException(
                     "Bad index type for put into a JsonList : " + k);
         }
-        if (i < 0 || i > list.size())
+        if (i < 0 || i > list().size())
             throw new RuntimeException(
                 "Bad index for put into a JsonList : " + i);
-        if (i < list.size()) {
-            JsonElement oldContents = list.get((int)i);
-            list.set((int)i, value);
+        if (i < list().size()) {
+            JsonElement oldContents = list().get((int)i);
+            list().set((int)i, value);
             return oldContents;
-        } else if (i == list.size()) {
-            list.add(value);
+        } else if (i == list().size()) {
+            list().add(value);
             return null;
         } else { 
             throw new RuntimeException(
@@ -222,7 +250,7 @@ public class JsonList extends JsonElement {
 
     @Override
     public void clear() {
-        list.clear();
+        list().clear();
     }
 
     @Override
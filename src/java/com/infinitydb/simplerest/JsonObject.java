@@ -30,6 +30,9 @@ import java.util.Set;
 
 public class JsonObject extends JsonElement {
     private final Map<JsonValue, JsonElement> map = new HashMap<>();
+    // Set until the entries are decoded, for JsonParser.parseLazily().
+    private volatile JsonIndex index;
+    private int indexEntry;
 
     JsonObject() {
     }
@@ -38,21 +41,46 @@ public class JsonObject extends JsonElement {
         insert(isCompactTips, objects);
     }
 
+    // Not decoded until used.
+    JsonObject(JsonIndex index, int indexEntry) {
+        this.index = index;
+        this.indexEntry = indexEntry;
+    }
+
+    private Map<JsonValue, JsonElement> map() {
+        if (index != null)
+            decode();
+        return map;
+    }
+
+    private synchronized void decode() {
+        if (index == null)
+            return;
+        try {
+            index.decodeObject(indexEntry, map);
+        } catch (RuntimeException e) {
+            // Still undecoded, so every use throws.
+            map.clear();
+            throw e;
+        }
+        index = null;
+    }
+
     @Override
     public Set<JsonValue> keySet() {
-        return map.keySet();
+        return map().keySet();
     }
 
     @Override
     public Iterator<JsonValue> iterator() {
-        return map.keySet().iterator();
+        return map().keySet().iterator();
     }
 
     @Override
     public JsonElement get(Object key) {
         if (key instanceof JsonValue)
-            return map.get(key);
-        return map.get(new JsonValue(key));
+            return map().get(key);
+        return map().get(new JsonValue(key));
     }
 
     /**
@@ -65,17 +93,17 @@ public class JsonObject extends JsonElement {
      *            any JsonElement
      */
     public JsonObject put(JsonValue key, JsonElement value) {
-        map.put(key, value);
+        map().put(key, value);
         return this;
     }
     
     public JsonObject putClass(String key, JsonElement value) {
-        map.put(new JsonValue(new IdbClass(key)), value);
+        map().put(new JsonValue(new IdbClass(key)), value);
         return this;
     }
 
     public JsonObject putAttribute(String key, JsonElement value) {
-        map.put(new JsonValue(new IdbAttribute(key)), value);
+        map().put(new JsonValue(new IdbAttribute(key)), value);
         return this;
     }
     
@@ -86,11 +114,11 @@ public class JsonObject extends JsonElement {
 
     @Override
     public Object value() {
-        if (map.size() == 0) {
+        if (map().size() == 0) {
             return null;
         }
-        if (map.size() == 1) {
-            for (Object o : map.keySet()) {
+        if (map().size() == 1) {
+            for (Object o : map().keySet()) {
                 return o;
             }
         }
@@ -116,57 +144,57 @@ public class JsonObject extends JsonElement {
     public boolean equals(Object other) {
         if (!(other instanceof JsonObject))
             return false;
-        return map.equals(((JsonObject)other).map);
+        return map().equals(((JsonObject)other).map());
     }
 
     @Override
     public int hashCode() {
-        return map.hashCode();
+        return map().hashCode();
     }
 
     @Override
     public Set<Entry<JsonValue, JsonElement>> entrySet() {
-        return map.entrySet();
+        return map().entrySet();
     }
 
     @Override
     public int size() {
-        return map.size();
+        return map().size();
     }
 
     @Override
     public boolean isEmpty() {
-        return map.isEmpty();
+        return map().isEmpty();
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return map.containsKey(key);
+        return map().containsKey(key);
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return map.containsValue(value);
+        return map().containsValue(value);
     }
 
     @Override
     public JsonElement remove(Object key) {
-        return map.remove(key);
+        return map().remove(key);
     }
 
     @Override
     public void putAll(
             Map< ? extends JsonValue, ? extends JsonElement> m) {
-        map.putAll(m);
+        map().putAll(m);
     }
 
     @Override
     public void clear() {
-        map.clear();
+        map().clear();
     }
 
     @Override
     public Collection<JsonElement> values() {
-        return map.values();
+        return map().values();
     }
 }
\ No newline at end of file
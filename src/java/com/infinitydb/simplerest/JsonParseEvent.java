@@ -0,0 +1,56 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event for a JsonParser.parse() that took longer than
+ * the threshold. The threshold is a JFR setting, so it can be changed for a
+ * recording, like:
+ * 
+ * <pre>
+ * recording.enable("com.infinitydb.simplerest.JsonParse")
+ *         .withThreshold(Duration.ofMillis(10));
+ * </pre>
+ * 
+ * When the event is not enabled, begin() and commit() do nothing and the
+ * JIT removes the event altogether.
+ */
+@Name("com.infinitydb.simplerest.JsonParse")
+@Label("InfinityDB JSON Parse")
+@Category({"InfinityDB", "JSON"})
+@Description("Parsing underscore-quoted JSON into a JsonElement")
+@Threshold("1 ms")
+final class JsonParseEvent extends Event {
+    @Label("Characters")
+    @Description("The length of the input, in bytes when parsing UTF-8")
+    long characters;
+
+    @Label("Tokens")
+    int tokens;
+}
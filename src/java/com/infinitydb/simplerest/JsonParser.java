@@ -22,6 +22,7 @@
 
 package com.infinitydb.simplerest;
 
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -45,268 +46,359 @@ import java.util.regex.Pattern;
  * of course not parseable as standard JSON.
  */
 public class JsonParser {
-    final List<String> jsonTokens;
+    // Nullable if parsing the UTF-8 bytes instead.
+    final String json;
+    // Nullable if parsing the String.
+    final byte[] bytes;
+    final int offset;
+    final int limit;
     int pos;
+    // Counted by parse() for the JsonParseEvent.
+    int tokenCount;
 
-    static final SimpleDateFormat ISO_SIMPLE_DATE_FORMAT =
-            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+    // One per thread, as a SimpleDateFormat can't be shared.
+    static final ThreadLocal<SimpleDateFormat> ISO_SIMPLE_DATE_FORMAT =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX"));
     private static final Pattern ISO_DATE_PATTERN = Pattern.compile(
             "\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d+)?(Z|[+-]\\d{2}:\\d{2})");
 
-    static class JsonTokenizer {
-        final String s;
-        final boolean isUnderscoreQuoting;
-        int pos;
+    // Turn off the default underscoreQuoting to get the
+    // special 'extended' JSON format that is simpler to read.
+    // It does  not go on the wire though.
+    boolean isUnderscoreQuoting = true;
+    
+    public JsonParser(String json) {
+        this(json, true);
+    }
+    public JsonParser(String json, boolean isUnderscoreQuoting) {
+        this.json = json;
+        this.bytes = null;
+        this.offset = 0;
+        this.limit = json.length();
+        this.isUnderscoreQuoting = isUnderscoreQuoting;
+    }
+
+    /**
+     * Parse UTF-8 where it is, such as in a Blob from the server, rather than
+     * decoding all of it into a String first. Only the keys and values are
+     * decoded, as they become Strings or the other 12 types.
+     */
+    public JsonParser(byte[] utf8, int offset, int length) {
+        this.json = null;
+        this.bytes = utf8;
+        this.offset = offset;
+        this.limit = offset + length;
+        this.pos = offset;
+    }
+
+    // The Blob must be JSON in UTF-8, like one from getAsJson().
+    public JsonParser(Blob blob) {
+        this(blob.data, 0, blob.data.length);
+    }
 
-        JsonTokenizer(String s) {
-            this.s = s;
-            this.isUnderscoreQuoting = true;
+    /**
+     * We create a tree of JsonElement, the superclass of JsonObject,
+     * JsonList, and JsonValue. They all implement java.util.Map, so they are
+     * easy to deal with.
+     * 
+     * A slow parse shows up in JDK Flight Recorder as a JsonParseEvent.
+     */
+    JsonElement parse() {
+        JsonParseEvent event = new JsonParseEvent();
+        event.begin();
+        JsonElement element = parseElement();
+        event.end();
+        if (event.shouldCommit()) {
+            event.characters = limit - offset;
+            event.tokens = tokenCount;
+            event.commit();
         }
-        
-        // Turn off the default underscoreQuoting to get the
-        // special 'extended' JSON format that is simpler to read.
-        // It does  not go on the wire though.
-        JsonTokenizer(String s, boolean isUnderscoreQuoting) {
-            this.s = s;
-            this.isUnderscoreQuoting = isUnderscoreQuoting;
+        return element;
+    }
+
+    /**
+     * Like parse(), but only the structure is read now, into a JsonIndex of
+     * where the brackets, colons and commas are. Each JsonObject and JsonList
+     * decodes its keys and values the first time it is looked into, and the
+     * ones never looked into are never decoded, so the time goes with what
+     * is used rather than the size. A key or value that is malformed throws
+     * only when its object or list is first used.
+     * 
+     * The unquoted dates of the extended format contain ':', so that format
+     * is parsed at once as by parse().
+     */
+    JsonElement parseLazily() {
+        if (!isUnderscoreQuoting)
+            return parse();
+        char c = peekToken();
+        if (c != '{' && c != '[')
+            return parse();
+        JsonParseEvent event = new JsonParseEvent();
+        event.begin();
+        JsonIndex index = new JsonIndex(this);
+        event.end();
+        if (event.shouldCommit()) {
+            event.characters = limit - offset;
+            event.tokens = index.count;
+            event.commit();
         }
+        return index.getRoot();
+    }
 
-        // An initial pass that locates the tokens
-        List<String> tokenize() {
-            List<String> tokens = new ArrayList<>();
-            whiteSpaces();
-            int beforePos = 0;
-            while (jsonToken()) {
-                tokens.add(s.substring(beforePos,  pos));
-                whiteSpaces();
-                beforePos = pos;
+    /**
+     * One pass over the characters, with no token list and no Strings except
+     * for the keys and values themselves, so the time is linear in the
+     * length. The open objects and lists are on a stack of our own rather
+     * than the Java stack, so the nesting can go as deep as the heap allows.
+     */
+    JsonElement parseElement() {
+        List<JsonElement> containers = new ArrayList<>();
+        // For each open JsonObject, the key its next element goes under.
+        List<JsonValue> keys = new ArrayList<>();
+        while (true) {
+            JsonElement element;
+            char c = peekToken();
+            if (c == '{') {
+                matchToken('{');
+                JsonObject jsonObject = new JsonObject();
+                if (matchToken('}')) {
+                    element = jsonObject;
+                } else {
+                    containers.add(jsonObject);
+                    keys.add(parseKey());
+                    continue;
+                }
+            } else if (c == '[') {
+                matchToken('[');
+                JsonList jsonList = new JsonList();
+                if (matchToken(']')) {
+                    element = jsonList;
+                } else {
+                    containers.add(jsonList);
+                    keys.add(null);
+                    continue;
+                }
+            } else {
+                element = new JsonValue(parseToken());
+            }
+            // Add the element to its container, and close any that end here.
+            while (true) {
+                int top = containers.size() - 1;
+                if (top < 0)
+                    return element;
+                JsonElement container = containers.get(top);
+                if (container instanceof JsonObject) {
+                    ((JsonObject)container).put(keys.get(top), element);
+                    if (matchToken(',')) {
+                        keys.set(top, parseKey());
+                        break;
+                    }
+                    if (!matchToken('}'))
+                        throw new RuntimeException("Missing } in JSON");
+                } else {
+                    ((JsonList)container).add(element);
+                    if (matchToken(','))
+                        break;
+                    if (!matchToken(']'))
+                        throw new RuntimeException("Missing ] in JSON");
+                }
+                element = container;
+                containers.remove(top);
+                keys.remove(top);
             }
-            return tokens;
         }
+    }
+
+    // A key and the ':' after it.
+    private JsonValue parseKey() {
+        int start = pos;
+        Object key = parseToken();
+        // Remove the '_' from the start of the keys and convert to the
+        // 12 types
+        if (key == null)
+            throw new RuntimeException("Unparseable token in JSON: "
+                    + substring(start, pos).trim());
+        if (!matchToken(':'))
+            throw new RuntimeException("Expected ':' in JSON");
+        return new JsonValue(key);
+    }
 
+    /**
+     * The key or value at pos, converted to one of the 12 types as
+     * unQuote() would do for the token.
+     */
+    Object parseToken() {
+        char c = peekToken();
+        if (c == '"')
+            return parseString();
+        if (isSeparator(c))
+            throw new RuntimeException("Unexpected '" + c + "' in JSON");
+        int start = pos;
         /*
          * The isoDate is for extended JSON in InfinityDB as a key. Match it
-         * first, because looks like it is separate tokens due to the contained
+         * first, because it looks like separate tokens due to the contained
          * ':'.
          */
-        boolean jsonToken() {
-            return isoDate() 
-                    || stringToken() 
-                    || charSet("{}[],:") 
-                    || longToken();
-        }
-        
-        boolean any() {
-            if (pos < s.length()) {
+        if (!isoDate()) {
+            while (pos < limit && !isSeparator(charAt(pos))
+                    && charAt(pos) > ' ')
                 pos++;
-                return true;
-            }
-            return false;
-        }
-        
-        boolean longToken() {
-            if (!longTokenChar())
-                return false;
-            while (longTokenChar()) {
-            }
-            return true;
-        }
-        
-        // The fact that we consider ':' a separator is tricky in the case of
-        // keys being dates in the Extended InfinityDB JSON format.
-        boolean longTokenChar() {
-            return !lookaheadWhiteSpace() && !lookaheadCharSet(",:[]{}") && any();
         }
-
-        // Match at least one 
-        boolean whiteSpaces() {
-            if (!lookaheadWhiteSpace())
-                return false;
-            while (lookaheadWhiteSpace()) {
-                if (!any())
-                    return true;
-            }
+        tokenCount++;
+        if (regionEquals(start, pos, "null"))
+            return null;
+        else if (regionEquals(start, pos, "true"))
             return true;
-        }
-        // Doesn't move
-        boolean lookaheadWhiteSpace() {
-            return pos < s.length() && s.charAt(pos) <= ' ';
-        }
-
-        boolean lookaheadCharSet(String charSet) {
-            int beforePos = pos;
-            boolean matched = charSet(charSet);
-            pos = beforePos;
-            return matched;
-        }
-
-        boolean charSet(String charSet) {
-            if (pos >= s.length())
-                return false;
-            for (int i = 0; i < charSet.length(); i++) {
-                if (charSet.charAt(i) == s.charAt(pos)) {
-                    pos++;
-                    return true;
-                }
-            }
-            return false;
-        }
-        
-        boolean digit() {
-            if (pos < s.length() && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
-                pos++;
-                return true;
-            }
+        else if (regionEquals(start, pos, "false"))
             return false;
-        }
-        
-        // Move forwards only if at least n digits are matched
-        boolean digits(int n) {
-            int beforePos = pos;
-            if (!digit())
-                return false;
-            // start at 1
-            for (int i = 1; i < n; i++) {
-                if (!digit()) {
-                    pos = beforePos;
-                    return false;
-                }
-            }
-            return true;
-        }
-        
-        boolean match(char c) {
-            if (pos < s.length() && s.charAt(pos) == c) {
+        return unQuote(substring(start, pos), isUnderscoreQuoting);
+    }
+
+    // A double-quoted string token, without making it a String first.
+    private Object parseString() {
+        int start = ++pos;
+        boolean hasEscapes = false;
+        while (true) {
+            if (pos >= limit)
+                throw new RuntimeException("Unterminated string in JSON");
+            char c = charAt(pos++);
+            if (c == '"')
+                break;
+            if (c == '\\') {
+                hasEscapes = true;
                 pos++;
-                return true;
             }
-            return false;
         }
-        boolean match(String s) {
-            if (this.s.substring(pos, this.s.length()).startsWith(s)) {
-                pos += s.length();
-                return true;
-            }
-            return false;
+        tokenCount++;
+        int end = pos - 1;
+        if (!isUnderscoreQuoting) {
+            return hasEscapes ? unescape(start, end) : substring(start, end);
         }
-        
-        // like match but don't move
-        boolean lookahead(char c) {
-            return pos < s.length() && s.charAt(pos) == c;
+        if (hasEscapes)
+            return unQuoteUnderscored(unescape(start, end));
+        // The usual case, where we can look before making any String.
+        if (start == end)
+            return "\"\"";
+        if (charAt(start) != '_') {
+            // NOTE a key should never be null
+            return regionEquals(start, end, "null") ? null : substring(start, end);
+        } else if (end - start > 1 && charAt(start + 1) == '_') {
+            return substring(start + 1, end);
         }
-        
-        // like match but don't move
-        boolean lookahead(String s) {
-            return this.s.substring(pos, this.s.length()).startsWith(s);
+        start++;
+        // Plain Longs are common, and need no String.
+        if (end - start <= 18) {
+            long n = 0;
+            int i = start;
+            for (; i < end && charAt(i) >= '0' && charAt(i) <= '9'; i++)
+                n = n * 10 + charAt(i) - '0';
+            if (i == end && i > start)
+                return n;
         }
+        return unQuoteUnderscored(substring(start - 1, end));
+    }
 
-        // We don't use regex because that is probably slow, but
-        // also it wants to have a $ so it matches completely,
-        // yet we are not giving it a pre-terminated string.
-        boolean isoDate() {
-            int beforePos = pos;
-            if (digits(4) && match('-') 
-                    && digits(2) && match('-') 
-                    && digits(2) && match('T')
-                    && digits(2) && match(':')
-                    && digits(2) && match(':')
-                    && digits(2) 
-                    && millis() && timeZone())
-                return true;
-            pos = beforePos;
+    char charAt(int i) {
+        return json != null ? json.charAt(i) : (char)(bytes[i] & 0xff);
+    }
+
+    /*
+     * Multi-byte UTF-8 characters are all bytes over 0x7f, so they can't be
+     * mistaken for quotes, separators or white space while scanning, and only
+     * need decoding here. The JDK copies ASCII straight across.
+     */
+    String substring(int start, int end) {
+        return json != null ? json.substring(start, end)
+                : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private String unescape(int start, int end) {
+        if (json != null)
+            return unescapeJsonString(json, start, end);
+        String s = substring(start, end);
+        return unescapeJsonString(s, 0, s.length());
+    }
+
+    // Whether the characters from start to end are s, which is ASCII.
+    private boolean regionEquals(int start, int end, String s) {
+        if (end - start != s.length())
             return false;
-        }
-        boolean millis() {
-            if (match('.'))
-                return digits(3);
-            return true;
-        }
-        
-        boolean timeZone() {
-            if (match('-') || match('+'))
-                return digits(2) && match(':') && digits(2);
-            return match('Z');
-        }
-        
-        boolean stringToken() {
-            if (!match('"'))
+        for (int i = 0; i < s.length(); i++) {
+            if (charAt(start + i) != s.charAt(i))
                 return false;
-            while (!match('"')) {
-                if (!quotedChar())
-                    return false;
-            }
-            return true;
-        }
-        boolean quotedChar() {
-            if (match('\\'))
-                any();
-            return any();
         }
+        return true;
     }
 
-    boolean isUnderscoreQuoting = true;
-    
-    public JsonParser(String json) {
-        this.jsonTokens = new JsonTokenizer(json).tokenize();
-    }
-    public JsonParser(String json, boolean isUnderscoreQuoting) {
-        this.isUnderscoreQuoting = isUnderscoreQuoting;
-        this.jsonTokens = new JsonTokenizer(json, isUnderscoreQuoting).tokenize();
+    static boolean isSeparator(char c) {
+        return c == '{' || c == '}' || c == '[' || c == ']' || c == ',' || c == ':';
     }
 
-    /**
-     * Parsing is easy once we have tokenized it. We create a tree of
-     * JsonElement, the superclass of JsonObject, JsonList, and JsonValue. They
-     * all implement java.util.Map, so they are easy to deal with.
-     */
-    JsonElement parse() {
-        if (pos >= jsonTokens.size())
+    // The next character other than white space, which is not consumed.
+    private char peekToken() {
+        while (pos < limit && charAt(pos) <= ' ')
+            pos++;
+        if (pos >= limit)
             throw new RuntimeException(
                     "JSON string terminated without complete parse");
-        if (match("{")) {
-            JsonObject jsonObject = new JsonObject();
-            // Remove the '_' from the start of the keys and convert to the
-            // 12 types
-            while (true) {
-                Object key = jsonTokens.get(pos);
-                key = unQuote(key, isUnderscoreQuoting);
-                if (key == null)
-                    throw new RuntimeException("Unparseable token in JSON: "
-                            + jsonTokens.get(pos));
-                pos++;
-                if (!match(":"))
-                    throw new RuntimeException("Expected ':' in JSON");
-                JsonElement value = parse();
-                jsonObject.put(new JsonValue(key), value);
-                if (match(","))
-                    continue;
-                if (match("}"))
-                    break;
-                throw new RuntimeException("Missing } in JSON");
-            }
-            return jsonObject;
-        } else if (match("[")) {
-            JsonList jsonList = new JsonList();
-            while (true) {
-                JsonElement o = parse();
-                jsonList.add(o);
-                if (match(","))
-                    continue;
-                if (match("]"))
-                    break;
-                throw new RuntimeException("Missing ] in JSON");
-            }
-            return jsonList;
-        } else {
-            String t = jsonTokens.get(pos);
+        return charAt(pos);
+    }
+
+    // Consume the single-character token c if it is next.
+    private boolean matchToken(char c) {
+        while (pos < limit && charAt(pos) <= ' ')
+            pos++;
+        if (pos < limit && charAt(pos) == c) {
             pos++;
-            Object o = unQuote(t, isUnderscoreQuoting);
-            return new JsonValue(o);
+            tokenCount++;
+            return true;
+        }
+        return false;
+    }
+
+    // We don't use regex because that is probably slow, but
+    // also it wants to have a $ so it matches completely,
+    // yet we are not giving it a pre-terminated string.
+    private boolean isoDate() {
+        int beforePos = pos;
+        if (digits(4) && match('-') 
+                && digits(2) && match('-') 
+                && digits(2) && match('T')
+                && digits(2) && match(':')
+                && digits(2) && match(':')
+                && digits(2) 
+                && millis() && timeZone())
+            return true;
+        pos = beforePos;
+        return false;
+    }
+
+    private boolean millis() {
+        if (match('.'))
+            return digits(3);
+        return true;
+    }
+
+    private boolean timeZone() {
+        if (match('-') || match('+'))
+            return digits(2) && match(':') && digits(2);
+        return match('Z');
+    }
+
+    // Move forwards only if n digits are matched
+    private boolean digits(int n) {
+        if (pos + n > limit)
+            return false;
+        for (int i = pos; i < pos + n; i++) {
+            if (charAt(i) < '0' || charAt(i) > '9')
+                return false;
         }
+        pos += n;
+        return true;
     }
 
-    boolean match(String s) {
-        if (pos < jsonTokens.size() && jsonTokens.get(pos).equals(s)) {
+    private boolean match(char c) {
+        if (pos < limit && charAt(pos) == c) {
             pos++;
             return true;
         }
@@ -315,14 +407,18 @@ public class JsonParser {
 
     public static String unescapeJsonString(String jsonString) {
         // Remove surrounding double quotes
-        if (jsonString.startsWith("\"") && jsonString.endsWith("\"")) {
-            jsonString = jsonString.substring(1, jsonString.length() - 1);
-        }
+        if (jsonString.length() > 1 && jsonString.startsWith("\"")
+                && jsonString.endsWith("\""))
+            return unescapeJsonString(jsonString, 1, jsonString.length() - 1);
+        return unescapeJsonString(jsonString, 0, jsonString.length());
+    }
 
-        StringBuilder unescapedString = new StringBuilder();
+    // The characters from start to end, which are inside the double quotes.
+    static String unescapeJsonString(String jsonString, int start, int end) {
+        StringBuilder unescapedString = new StringBuilder(end - start);
         boolean isEscaped = false;
 
-        for (int i = 0; i < jsonString.length(); i++) {
+        for (int i = start; i < end; i++) {
             char c = jsonString.charAt(i);
 
             if (isEscaped) {
@@ -353,7 +449,7 @@ public class JsonParser {
                     break;
                 case 'u' :
                     // Unicode escape sequence
-                    if (i + 4 < jsonString.length()) {
+                    if (i + 4 < end) {
                         String unicodeHex =
                                 jsonString.substring(i + 1, i + 5);
                         try {
@@ -464,7 +560,7 @@ public class JsonParser {
             // 'Stuff' an extra '_' if one is already there
             return s.startsWith("_") ? "_" + s : s;
         } else if (o instanceof Date) {
-            return "_" + ISO_SIMPLE_DATE_FORMAT.format((Date)o);
+            return "_" + ISO_SIMPLE_DATE_FORMAT.get().format((Date)o);
         } else if (o instanceof byte[]) {
             return new IdbByteArray((byte[])o).toString();
         } else if (o instanceof char[]) {
@@ -500,7 +596,7 @@ public class JsonParser {
         } else if (o instanceof String) {
             return JsonParser.convertToJsonString((String)o);
         } else if (o instanceof Date) {
-            return ISO_SIMPLE_DATE_FORMAT.format((Date)o);
+            return ISO_SIMPLE_DATE_FORMAT.get().format((Date)o);
         } else if (o instanceof byte[]) {
             return new IdbByteArray((byte[])o).toString();
         } else if (o instanceof char[]) {
@@ -521,41 +617,48 @@ public class JsonParser {
 
     // This works for key or value.
     public static Object unQuote(Object o, boolean isUnderscoreQuoting) {
+        if (!(o instanceof String))
+            return o;
+        String s = (String)o;
+        if (s.length() == 0)
+            return "";
+        else if (s.equals("null"))
+            return null;
+        else if (s.equals("true"))
+            return true;
+        else if (s.equals("false"))
+            return false;
+        if (!isUnderscoreQuoting) {
+            // The special 'extended' format where keys may not need double quotes.
+            if (s.startsWith("\""))
+                return unescapeJsonString(s);
+            return unQuoteComponent(s);
+        }
+        return unQuoteUnderscored(unescapeJsonString(s));
+    }
+
+    // An underscore-quoted key or value, already unescaped.
+    static Object unQuoteUnderscored(String s) {
+        if (s.length() == 0)
+            return "\"\"";
+        if (s.charAt(0) != '_') {
+            // NOTE a key should never be null
+            return s.equals("null") ? null : s;
+        } else if (s.startsWith("__")) {
+            return s.substring(1);
+        }
+        // it is a string starting with a single _
+        s = s.substring(1);
+        if (s.length() == 0) {
+            throw new RuntimeException(
+                    "Cannot underscore-unquote a lone underscore");
+        }
+        return unQuoteComponent(s);
+    }
+
+    // One of the 12 types in its plain form, such as 5, Bytes(..) or a class name.
+    static Object unQuoteComponent(String s) {
         try {
-            if (!(o instanceof String))
-                return o;
-            String s = (String)o;
-            if (s.length() == 0)
-                return "";
-            else if (s.equals("null"))
-                return null;
-            else if (s.equals("true"))
-                return true;
-            else if (s.equals("false"))
-                return false;
-            if (!isUnderscoreQuoting) {
-                // The special 'extended' format where keys may not need double quotes.
-                if (s.startsWith("\"")) {
-                    s = unescapeJsonString(s);
-                    return s;
-                }
-            } else {
-                s = unescapeJsonString(s);
-                if (s.length() == 0)
-                    return "\"\"";
-                if (s.charAt(0) != '_') {
-                    // NOTE a key should never be null
-                    return s.equals("null") ? null : s;
-                } else if (s.startsWith("__")) {
-                    return s.substring(1);
-                }
-                // it is a string starting with a single _
-                s = s.substring(1);
-                if (s.length() == 0) {
-                    throw new RuntimeException(
-                            "Cannot underscore-unquote a lone underscore");
-                }
-            }
             if (s.equals("null")) {
                 return null;
             } else if (s.equals("true")) {
@@ -564,7 +667,7 @@ public class JsonParser {
                 return false;
             } else if (s.charAt(0) >= '0' && s.charAt(0) <= '9') {
                 if (ISO_DATE_PATTERN.matcher(s).matches()) {
-                    return ISO_SIMPLE_DATE_FORMAT.parse(s);
+                    return ISO_SIMPLE_DATE_FORMAT.get().parse(s);
                 } else if (!s.contains(".")) {
                     return Long.parseLong(s);
                 } else if (s.endsWith("f")) {
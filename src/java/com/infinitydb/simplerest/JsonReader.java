@@ -0,0 +1,399 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads underscore-quoted JSON from a stream one event at a time, so a
+ * result of any size is processed in the memory of a buffer, rather than
+ * parsed into a tree as JsonParser does. The events come as the bytes
+ * arrive, such as from getAsJsonStream() or executeQueryStream():
+ * 
+ * <pre>
+ * try (JsonReader reader = new JsonReader(client.getAsJsonStream(new IdbClass("Orders")))) {
+ *     for (JsonReader.Event event; (event = reader.next()) != null;) {
+ *         if (event == JsonReader.Event.KEY || event == JsonReader.Event.VALUE)
+ *             process(reader.getDepth(), reader.getComponent());
+ *     }
+ * }
+ * </pre>
+ * 
+ * Keys and values are decoded from the underscore quoting just as by
+ * JsonParser, into a Long, Date, IdbClass, IdbByteArray, String and so on.
+ * A big list can be taken one element at a time with readElement(), and a
+ * part of no interest passed over with skipValue(), which decodes nothing.
+ * 
+ * Malformed JSON throws a RuntimeException, as for JsonParser.
+ */
+public class JsonReader implements Closeable {
+    public enum Event {
+        START_OBJECT, END_OBJECT, START_LIST, END_LIST, KEY, VALUE
+    }
+
+    // What may come next.
+    private enum State {
+        START, BEFORE_FIRST_KEY, BEFORE_KEY, AFTER_KEY, BEFORE_FIRST_VALUE,
+        BEFORE_VALUE, AFTER_VALUE, DONE
+    }
+
+    static final int BUFFER_SIZE = 8192;
+
+    final InputStream in;
+    final boolean isUnderscoreQuoting;
+    // The bytes from pos to end are read but not yet consumed.
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos;
+    private int end;
+    private boolean isEndOfStream;
+    private State state = State.START;
+    // For each open object or list, whether it is an object.
+    private boolean[] isObjects = new boolean[16];
+    private int depth;
+    private Object component;
+    private boolean isSkipping;
+
+    public JsonReader(InputStream in) {
+        this(in, true);
+    }
+
+    // Turn off underscoreQuoting for the 'extended' JSON format.
+    public JsonReader(InputStream in, boolean isUnderscoreQuoting) {
+        this.in = in;
+        this.isUnderscoreQuoting = isUnderscoreQuoting;
+    }
+
+    /**
+     * Move on to the next event. After a KEY or VALUE, getComponent() has
+     * what it was.
+     * 
+     * @return null at the end of the JSON. Anything after it in the stream
+     *         is not read.
+     */
+    public Event next() throws IOException {
+        while (true) {
+            switch (state) {
+            case DONE:
+                return null;
+            case START:
+                if (skipWhiteSpace() < 0) {
+                    // Empty, as for a 204 No Content.
+                    state = State.DONE;
+                    return null;
+                }
+                state = State.BEFORE_VALUE;
+                continue;
+            case AFTER_KEY:
+                if (peek() != ':')
+                    throw new RuntimeException("Expected ':' in JSON");
+                pos++;
+                state = State.BEFORE_VALUE;
+                continue;
+            case AFTER_VALUE: {
+                if (depth == 0) {
+                    state = State.DONE;
+                    return null;
+                }
+                boolean isObject = isObjects[depth - 1];
+                int c = peek();
+                if (c == ',') {
+                    pos++;
+                    state = isObject ? State.BEFORE_KEY : State.BEFORE_VALUE;
+                    continue;
+                }
+                if (isObject && c == '}')
+                    return endContainer(Event.END_OBJECT);
+                if (!isObject && c == ']')
+                    return endContainer(Event.END_LIST);
+                throw new RuntimeException(isObject ? "Missing } in JSON" : "Missing ] in JSON");
+            }
+            case BEFORE_FIRST_KEY:
+                if (peek() == '}')
+                    return endContainer(Event.END_OBJECT);
+                state = State.BEFORE_KEY;
+                continue;
+            case BEFORE_KEY:
+                component = readToken();
+                // A key should never be null.
+                if (component == null && !isSkipping)
+                    throw new RuntimeException("Unparseable token in JSON: null");
+                state = State.AFTER_KEY;
+                return Event.KEY;
+            case BEFORE_FIRST_VALUE:
+                if (peek() == ']')
+                    return endContainer(Event.END_LIST);
+                state = State.BEFORE_VALUE;
+                continue;
+            case BEFORE_VALUE: {
+                int c = peek();
+                if (c == '{' || c == '[') {
+                    pos++;
+                    if (depth == isObjects.length)
+                        isObjects = Arrays.copyOf(isObjects, depth * 2);
+                    isObjects[depth++] = c == '{';
+                    component = null;
+                    state = c == '{' ? State.BEFORE_FIRST_KEY : State.BEFORE_FIRST_VALUE;
+                    return c == '{' ? Event.START_OBJECT : Event.START_LIST;
+                }
+                component = readToken();
+                state = State.AFTER_VALUE;
+                return Event.VALUE;
+            }
+            }
+        }
+    }
+
+    private Event endContainer(Event event) {
+        pos++;
+        depth--;
+        component = null;
+        state = State.AFTER_VALUE;
+        return event;
+    }
+
+    /**
+     * The key or value of the last KEY or VALUE event, as one of the 12
+     * types. Null for a JSON null.
+     */
+    public Object getComponent() {
+        return component;
+    }
+
+    // The objects and lists we are inside, counting one just started.
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Read the next value whole as a JsonElement, like JsonParser would.
+     * This is for taking a list one element at a time, or an object one
+     * entry at a time after its KEY.
+     * 
+     * @return null if the object or list ends instead, which is consumed,
+     *         or at the end of the JSON.
+     */
+    public JsonElement readElement() throws IOException {
+        Event event = next();
+        if (event == null || event == Event.END_OBJECT || event == Event.END_LIST)
+            return null;
+        if (event == Event.KEY)
+            throw new IllegalStateException("readElement() found a key rather than a value");
+        if (event == Event.VALUE)
+            return new JsonValue(component);
+        JsonElement root = event == Event.START_OBJECT ? new JsonObject() : new JsonList();
+        List<JsonElement> containers = new ArrayList<>();
+        // For each open JsonObject, the key its next element goes under.
+        List<JsonValue> keys = new ArrayList<>();
+        containers.add(root);
+        keys.add(null);
+        while (!containers.isEmpty()) {
+            int top = containers.size() - 1;
+            event = next();
+            JsonElement element;
+            if (event == Event.KEY) {
+                keys.set(top, new JsonValue(component));
+                continue;
+            } else if (event == Event.END_OBJECT || event == Event.END_LIST) {
+                containers.remove(top);
+                keys.remove(top);
+                continue;
+            } else if (event == Event.VALUE) {
+                element = new JsonValue(component);
+            } else {
+                element = event == Event.START_OBJECT ? new JsonObject() : new JsonList();
+            }
+            JsonElement container = containers.get(top);
+            if (container instanceof JsonObject)
+                ((JsonObject)container).put(keys.get(top), element);
+            else
+                ((JsonList)container).add(element);
+            if (event != Event.VALUE) {
+                containers.add(element);
+                keys.add(null);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Pass over the next value, including everything inside it, without
+     * decoding any of it. At a key, the key and its value are passed over.
+     * At the end of an object or list, that is consumed instead.
+     */
+    public void skipValue() throws IOException {
+        isSkipping = true;
+        try {
+            int startDepth = depth;
+            Event event = next();
+            if (event == Event.KEY)
+                event = next();
+            while (depth > startDepth)
+                next();
+        } finally {
+            isSkipping = false;
+            component = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        state = State.DONE;
+        in.close();
+    }
+
+    /**
+     * The key or value at pos, converted to one of the 12 types as
+     * JsonParser does it, or null when skipping.
+     */
+    private Object readToken() throws IOException {
+        int c = peek();
+        if (c == '"')
+            return readString();
+        if (JsonParser.isSeparator((char)c))
+            throw new RuntimeException("Unexpected '" + (char)c + "' in JSON");
+        // A date has ':'s in it, so it must be found before they are taken
+        // as separators.
+        int length = isoDateLength();
+        if (length == 0) {
+            for (int b; (b = byteAt(length)) > ' ' && !JsonParser.isSeparator((char)b);)
+                length++;
+        }
+        String token = isSkipping ? null
+                : new String(buffer, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return isSkipping ? null : JsonParser.unQuote(token, isUnderscoreQuoting);
+    }
+
+    private Object readString() throws IOException {
+        boolean hasEscapes = false;
+        int length = 1;
+        while (true) {
+            int b = byteAt(length++);
+            if (b < 0)
+                throw new RuntimeException("Unterminated string in JSON");
+            if (b == '"')
+                break;
+            if (b == '\\') {
+                hasEscapes = true;
+                length++;
+            }
+        }
+        if (isSkipping) {
+            pos += length;
+            return null;
+        }
+        String s = new String(buffer, pos + 1, length - 2, StandardCharsets.UTF_8);
+        pos += length;
+        if (hasEscapes)
+            s = JsonParser.unescapeJsonString(s, 0, s.length());
+        return isUnderscoreQuoting ? JsonParser.unQuoteUnderscored(s) : s;
+    }
+
+    // Like 2023-05-01T12:00:00.000-07:00, with optional millis.
+    private static final String DATE_TEMPLATE = "0000-00-00T00:00:00";
+
+    // The length of an ISO date at pos, or 0 if there is none.
+    private int isoDateLength() throws IOException {
+        int i = 0;
+        for (; i < DATE_TEMPLATE.length(); i++) {
+            int b = byteAt(i);
+            boolean isDigit = b >= '0' && b <= '9';
+            if (DATE_TEMPLATE.charAt(i) == '0' ? !isDigit : b != DATE_TEMPLATE.charAt(i))
+                return 0;
+        }
+        if (byteAt(i) == '.') {
+            if (!isDigits(i + 1, 3))
+                return 0;
+            i += 4;
+        }
+        int b = byteAt(i);
+        if (b == 'Z')
+            return i + 1;
+        if ((b == '+' || b == '-') && isDigits(i + 1, 2) && byteAt(i + 3) == ':'
+                && isDigits(i + 4, 2))
+            return i + 6;
+        return 0;
+    }
+
+    private boolean isDigits(int i, int n) throws IOException {
+        for (int j = i; j < i + n; j++) {
+            int b = byteAt(j);
+            if (b < '0' || b > '9')
+                return false;
+        }
+        return true;
+    }
+
+    // The next byte other than white space, which is not consumed.
+    private int peek() throws IOException {
+        int b = skipWhiteSpace();
+        if (b < 0)
+            throw new RuntimeException("JSON string terminated without complete parse");
+        return b;
+    }
+
+    // -1 at the end of the stream.
+    private int skipWhiteSpace() throws IOException {
+        int b;
+        while ((b = byteAt(0)) >= 0 && b <= ' ')
+            pos++;
+        return b;
+    }
+
+    // The byte i after pos, reading more as needed. -1 at the end of the stream.
+    private int byteAt(int i) throws IOException {
+        if (pos + i >= end && !fill(i + 1))
+            return -1;
+        return buffer[pos + i] & 0xff;
+    }
+
+    /**
+     * Read until there are n bytes after pos, or the stream ends. The bytes
+     * from pos on are kept, so a token can be longer than the buffer.
+     */
+    private boolean fill(int n) throws IOException {
+        while (end - pos < n) {
+            if (isEndOfStream)
+                return false;
+            if (pos > 0) {
+                System.arraycopy(buffer, pos, buffer, 0, end - pos);
+                end -= pos;
+                pos = 0;
+            }
+            if (end == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            int bytesRead = in.read(buffer, end, buffer.length - end);
+            if (bytesRead < 0)
+                isEndOfStream = true;
+            else
+                end += bytesRead;
+        }
+        return true;
+    }
+}
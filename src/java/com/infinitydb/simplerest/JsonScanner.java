@@ -0,0 +1,113 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the brackets, colons and commas outside of strings in UTF-8 JSON,
+ * for JsonIndex. Most of the bytes of a large result are inside strings,
+ * such as the hex of byte arrays, text and dates, so the inside of a string
+ * is scanned eight bytes at a time: each long read is compared at once
+ * against '"' and '\' with bit tricks, giving a mask of the bytes that
+ * matched, and the scan jumps straight to the first of them. Between the
+ * strings there are only short tokens and white space, which go a byte at
+ * a time.
+ * 
+ * The bytes of multi-byte UTF-8 characters are all over 0x7f, so they never
+ * match.
+ */
+final class JsonScanner {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(
+            long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+    private final byte[] bytes;
+    private final int limit;
+    private int pos;
+    private boolean isInString;
+
+    JsonScanner(byte[] bytes, int start, int limit) {
+        this.bytes = bytes;
+        this.limit = limit;
+        this.pos = start;
+    }
+
+    // The position of the next separator outside of a string, or -1 at the end.
+    int next() {
+        for (int i = pos; i < limit; i++) {
+            byte c = bytes[i];
+            if (c == '"') {
+                i = skipString(i + 1);
+                if (i < 0)
+                    break;
+            } else if (c == '{' || c == '}' || c == '[' || c == ']'
+                    || c == ',' || c == ':') {
+                pos = i + 1;
+                return i;
+            }
+        }
+        pos = limit;
+        return -1;
+    }
+
+    // At the end, whether a string was never closed.
+    boolean isInString() {
+        return isInString;
+    }
+
+    // The position of the closing quote of the string starting at i, or -1.
+    private int skipString(int i) {
+        while (true) {
+            for (; i + 8 <= limit; i += 8) {
+                long word = (long)LONGS.get(bytes, i);
+                long matches = zeros(word, '"') | zeros(word, '\\');
+                if (matches != 0) {
+                    // Little-endian, so the lowest bit is the first byte.
+                    i += Long.numberOfTrailingZeros(matches) >>> 3;
+                    break;
+                }
+            }
+            if (i >= limit) {
+                isInString = true;
+                return -1;
+            }
+            byte c = bytes[i];
+            if (c == '"')
+                return i;
+            i += c == '\\' ? 2 : 1;
+        }
+    }
+
+    /*
+     * The high bit of each byte of the word that is c. The low seven bits
+     * are added separately, so no carry crosses into the next byte.
+     */
+    private static long zeros(long word, char c) {
+        long x = word ^ ONES * c;
+        return ~((x & LOW_SEVEN_BITS) + LOW_SEVEN_BITS | x | LOW_SEVEN_BITS);
+    }
+}
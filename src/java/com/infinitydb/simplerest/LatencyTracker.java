@@ -0,0 +1,64 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.util.Arrays;
+
+/**
+ * The latencies of the most recent successful calls, for finding a
+ * percentile such as the p95 that a hedged request waits for. A ring of a few
+ * hundred samples follows changes in the server's behavior quickly, and
+ * sorting a copy of it is cheap next to a network round trip.
+ */
+class LatencyTracker {
+    static final int SAMPLES = 256;
+    // Not enough to say what the tail looks like before this.
+    static final int MIN_SAMPLES = 20;
+
+    private final long[] latencyNanos = new long[SAMPLES];
+    private int count;
+    private int next;
+
+    synchronized void record(long nanos) {
+        latencyNanos[next] = nanos;
+        next = (next + 1) % SAMPLES;
+        if (count < SAMPLES)
+            count++;
+    }
+
+    /**
+     * @param percentile
+     *            such as 0.95.
+     * @return the latency, or -1 if there are too few samples yet.
+     */
+    long getPercentileNanos(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MIN_SAMPLES)
+                return -1;
+            sorted = Arrays.copyOf(latencyNanos, count);
+        }
+        Arrays.sort(sorted);
+        int i = (int)Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+}
@@ -0,0 +1,172 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * One kept-alive HTTP/1.1 connection in a ConnectionPool, already connected
+ * and, for https, handshaken.
+ */
+class PooledConnection {
+    // Don't bother checking for a closed connection if it was used recently.
+    static final long STALE_CHECK_AFTER_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // scheme://host:port
+    final String key;
+    final Socket socket;
+    final BufferedInputStream in;
+    final OutputStream out;
+    // Nullable. The raw channel for zero-copy uploads, only for plain http.
+    final SocketChannel channel;
+    long lastUsedNanos = System.nanoTime();
+    // Came out of the pool rather than being newly opened, so it may have
+    // been closed by the server while it sat idle.
+    boolean isFromIdle;
+    // Has served a response already, so its connect and handshake were paid
+    // for by an earlier request. Not true of a prewarmed one.
+    boolean isReused;
+    // How long open() took for each part. tlsNanos is 0 for plain http.
+    long connectNanos;
+    long tlsNanos;
+
+    private PooledConnection(String key, Socket socket, SocketChannel channel)
+            throws IOException {
+        this.key = key;
+        this.socket = socket;
+        this.channel = channel;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    static String getKey(URL url) {
+        return url.getProtocol() + "://" + url.getHost() + ":" + getPort(url);
+    }
+
+    static int getPort(URL url) {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    /**
+     * @param sslSocketFactory
+     *            for https.
+     * @param isVerifyHostName
+     *            false only when SSL security is disabled.
+     * @param connectTimeoutMillis
+     *            for the TCP connection and the TLS handshake each. 0 for none.
+     */
+    static PooledConnection open(URL url, SSLSocketFactory sslSocketFactory,
+            boolean isVerifyHostName, int connectTimeoutMillis) throws IOException {
+        String host = url.getHost();
+        int port = getPort(url);
+        // Opened as a channel so a file can be sent with transferTo().
+        SocketChannel channel = SocketChannel.open();
+        Socket socket = channel.socket();
+        try {
+            socket.setTcpNoDelay(true);
+            long startNanos = System.nanoTime();
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            long connectNanos = System.nanoTime() - startNanos;
+            if ("https".equalsIgnoreCase(url.getProtocol())) {
+                SSLSocket sslSocket = (SSLSocket)sslSocketFactory.createSocket(
+                        socket, host, port, true);
+                if (isVerifyHostName) {
+                    SSLParameters sslParameters = sslSocket.getSSLParameters();
+                    sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    sslSocket.setSSLParameters(sslParameters);
+                }
+                // The handshake has no timeout of its own.
+                sslSocket.setSoTimeout(connectTimeoutMillis);
+                sslSocket.startHandshake();
+                // Everything must go through the encryption now.
+                PooledConnection connection = new PooledConnection(getKey(url),
+                        sslSocket, null);
+                connection.connectNanos = connectNanos;
+                connection.tlsNanos = System.nanoTime() - startNanos - connectNanos;
+                return connection;
+            }
+            PooledConnection connection = new PooledConnection(getKey(url),
+                    socket, channel);
+            connection.connectNanos = connectNanos;
+            return connection;
+        } catch (SocketTimeoutException e) {
+            socket.close();
+            throw new ConnectTimeoutException("Timed out connecting to "
+                    + host + ":" + port, e);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * True if the server has closed the connection while it was idle. There
+     * would be nothing to read on a healthy idle connection, so we peek
+     * with a very short timeout.
+     */
+    boolean isStale() {
+        if (socket.isClosed())
+            return true;
+        if (System.nanoTime() - lastUsedNanos < STALE_CHECK_AFTER_NANOS)
+            return false;
+        try {
+            int soTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                in.mark(1);
+                in.read();
+                in.reset();
+                // Either closed or unexpected data.
+                return true;
+            } finally {
+                socket.setSoTimeout(soTimeout);
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more to do with it.
+        }
+    }
+}
@@ -0,0 +1,478 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * A transport that speaks HTTP/1.1 itself over the connections in a
+ * ConnectionPool. Unlike HttpURLConnection, the keep-alive is under our
+ * control, and is not interrupted when SSL security is disabled.
+ */
+class PooledTransport implements HttpTransport {
+    // An unread remainder of a response up to this size is skipped so the
+    // connection can be re-used. Otherwise the connection is closed.
+    static final int MAX_DRAIN_BYTES = 64 * 1024;
+    // Longer status, header or chunk size lines are refused.
+    static final int MAX_LINE_LENGTH = 8 * 1024;
+
+    final ConnectionPool connectionPool;
+    final boolean isDisableSSLSecurity;
+    final SSLSocketFactory sslSocketFactory;
+    // For prewarm(), which is not part of any one call. 0 for none.
+    final int connectTimeoutMillis;
+
+    PooledTransport(ConnectionPool connectionPool, boolean isDisableSSLSecurity,
+            int connectTimeoutMillis) throws IOException {
+        this.connectionPool = connectionPool;
+        this.isDisableSSLSecurity = isDisableSSLSecurity;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        if (isDisableSSLSecurity) {
+            try {
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, new TrustManager[] {new TrustAnythingTrustManager()},
+                        new SecureRandom());
+                this.sslSocketFactory = sslContext.getSocketFactory();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        } else {
+            this.sslSocketFactory = (SSLSocketFactory)SSLSocketFactory.getDefault();
+        }
+    }
+
+    /**
+     * Open n connections to the host of the URL ahead of time.
+     * 
+     * @return the number actually opened, limited by the pool.
+     */
+    int prewarm(URL url, int n) throws IOException {
+        return connectionPool.prewarm(PooledConnection.getKey(url),
+                () -> open(url, connectTimeoutMillis), n);
+    }
+
+    private PooledConnection open(URL url, int connectTimeoutMillis) throws IOException {
+        return PooledConnection.open(url, sslSocketFactory, !isDisableSSLSecurity,
+                connectTimeoutMillis);
+    }
+
+    @Override
+    public TransportResponse send(String method, URL url,
+            Map<String, String> headers, BlobSource body,
+            int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        String key = PooledConnection.getKey(url);
+        for (int attempt = 0;; attempt++) {
+            /*
+             * A full pool is waited on no longer than a connect would take,
+             * and any wait comes out of the connect timeout.
+             */
+            long startNanos = System.nanoTime();
+            PooledConnection connection = connectionPool.acquire(key,
+                    connectTimeoutMillis, () -> open(url, remainingMillis(
+                            connectTimeoutMillis, startNanos)));
+            try {
+                // Set every time, as the connection may have been used by a
+                // call with a different timeout.
+                connection.socket.setSoTimeout(readTimeoutMillis);
+                writeRequest(connection, method, url, headers, body);
+                TransportResponse response = readResponse(connection, method);
+                // Only a new connection was opened for this request.
+                response.connectNanos = connection.isReused ? 0 : connection.connectNanos;
+                response.tlsNanos = connection.isReused ? 0 : connection.tlsNanos;
+                connection.isReused = true;
+                return response;
+            } catch (IOException | RuntimeException e) {
+                connectionPool.release(connection, false);
+                /*
+                 * A kept-alive connection can be closed by the server at any
+                 * moment, so we try a GET once more on a fresh connection,
+                 * as HttpURLConnection does.
+                 */
+                if (connection.isFromIdle && attempt == 0
+                        && method.equalsIgnoreCase("GET") && e instanceof IOException)
+                    continue;
+                throw e;
+            }
+        }
+    }
+
+    // What is left of a timeout started at startNanos. 0 stays 0 for none.
+    static int remainingMillis(int timeoutMillis, long startNanos) {
+        if (timeoutMillis <= 0)
+            return timeoutMillis;
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return (int)Math.max(1, timeoutMillis - elapsedMillis);
+    }
+
+    static void writeRequest(PooledConnection connection, String method, URL url,
+            Map<String, String> headers, BlobSource body) throws IOException {
+        OutputStream out = connection.out;
+        StringBuilder sb = new StringBuilder();
+        String file = url.getFile();
+        sb.append(method).append(' ').append(file.isEmpty() ? "/" : file)
+                .append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1)
+            sb.append(':').append(url.getPort());
+        sb.append("\r\n");
+        sb.append("User-Agent: InfinityDBSimpleRestClient\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet())
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        boolean isSendingBody = method.equalsIgnoreCase("POST") && body != null;
+        boolean isChunked = isSendingBody && body.getContentLength() < 0;
+        if (isChunked)
+            sb.append("Transfer-Encoding: chunked\r\n");
+        else if (isSendingBody)
+            sb.append("Content-Length: ").append(body.getContentLength()).append("\r\n");
+        else if (method.equalsIgnoreCase("POST"))
+            sb.append("Content-Length: 0\r\n");
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (isChunked) {
+            ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out);
+            body.writeTo(chunkedOut, null);
+            chunkedOut.finish();
+        } else if (isSendingBody) {
+            body.writeTo(out, connection.channel);
+        }
+        out.flush();
+    }
+
+    TransportResponse readResponse(PooledConnection connection, String method)
+            throws IOException {
+        InputStream in = connection.in;
+        String[] statusParts;
+        int status;
+        Map<String, List<String>> headers;
+        // Skip any 100 Continue and the like.
+        do {
+            String statusLine = readLine(in);
+            if (statusLine == null)
+                throw new IOException("Connection closed before the response status");
+            statusParts = statusLine.split(" ", 3);
+            if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/"))
+                throw new IOException("Bad HTTP status line: " + statusLine);
+            try {
+                status = Integer.parseInt(statusParts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad HTTP status line: " + statusLine);
+            }
+            headers = readHeaders(in, new LinkedHashMap<>());
+        } while (status >= 100 && status < 200);
+        String message = statusParts.length > 2 ? statusParts[2] : "";
+        boolean isKeepAlive = !statusParts[0].equals("HTTP/1.0")
+                && !hasToken(headers, "Connection", "close");
+        String contentLength = getHeader(headers, "Content-Length");
+        BodyInputStream body;
+        if (method.equalsIgnoreCase("HEAD") || status == 204 || status == 304) {
+            body = new FixedLengthInputStream(in, 0);
+        } else if (hasToken(headers, "Transfer-Encoding", "chunked")) {
+            body = new ChunkedInputStream(in);
+        } else if (contentLength != null) {
+            try {
+                body = new FixedLengthInputStream(in, Long.parseLong(contentLength.trim()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad Content-Length: " + contentLength);
+            }
+        } else {
+            // The content ends when the server closes the connection.
+            body = new FixedLengthInputStream(in, Long.MAX_VALUE);
+            isKeepAlive = false;
+        }
+        boolean isReusable = isKeepAlive;
+        return new TransportResponse(status, message, headers, body,
+                () -> connectionPool.release(connection,
+                        isReusable && body.drain(MAX_DRAIN_BYTES)));
+    }
+
+    static String getHeader(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            if (e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty())
+                return e.getValue().get(0);
+        }
+        return null;
+    }
+
+    // Like "Connection: keep-alive, close"
+    static boolean hasToken(Map<String, List<String>> headers, String name, String token) {
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            if (!e.getKey().equalsIgnoreCase(name))
+                continue;
+            for (String value : e.getValue()) {
+                for (String t : value.split(",")) {
+                    if (t.trim().equalsIgnoreCase(token))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read a status, header or chunk size line without its line ending.
+     * 
+     * @return null at the end of the stream
+     * @throws IOException
+     *             if the line is longer than MAX_LINE_LENGTH, so a broken or
+     *             hostile server can't make us buffer without limit.
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        while (true) {
+            int b = in.read();
+            if (b == -1)
+                return line.size() == 0 ? null : line.toString("ISO-8859-1");
+            if (b == '\n')
+                break;
+            if (b == '\r')
+                continue;
+            if (line.size() >= MAX_LINE_LENGTH)
+                throw new IOException("HTTP response line longer than "
+                        + MAX_LINE_LENGTH + " bytes");
+            line.write(b);
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    static Map<String, List<String>> readHeaders(InputStream in,
+            Map<String, List<String>> headers) throws IOException {
+        while (true) {
+            String line = readLine(in);
+            if (line == null || line.isEmpty())
+                return headers;
+            int colon = line.indexOf(':');
+            if (colon <= 0)
+                continue;
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            headers.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+    }
+
+    /**
+     * The content of one response. Closing it leaves the connection open.
+     */
+    static abstract class BodyInputStream extends InputStream {
+        final InputStream in;
+
+        BodyInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        abstract boolean isAtEnd();
+
+        /**
+         * Skip whatever remains of a small content, so the connection is
+         * ready for the next response.
+         * 
+         * @return true if the end was reached.
+         */
+        boolean drain(int maxBytes) {
+            try {
+                byte[] buffer = new byte[8192];
+                int drained = 0;
+                while (!isAtEnd() && drained <= maxBytes) {
+                    int n = read(buffer, 0, buffer.length);
+                    if (n == -1)
+                        break;
+                    drained += n;
+                }
+                return isAtEnd();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public void close() {
+            // The connection goes back to the pool instead.
+        }
+    }
+
+    static class FixedLengthInputStream extends BodyInputStream {
+        long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        boolean isAtEnd() {
+            return remaining == 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0)
+                return -1;
+            if (len == 0)
+                return 0;
+            int n = in.read(b, off, (int)Math.min(len, remaining));
+            if (n == -1) {
+                if (remaining != Long.MAX_VALUE)
+                    throw new IOException("Connection closed before the end of the content");
+                // Delimited by the close.
+                remaining = 0;
+                return -1;
+            }
+            if (remaining != Long.MAX_VALUE)
+                remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(in.available(), remaining);
+        }
+    }
+
+    static class ChunkedInputStream extends BodyInputStream {
+        long chunkRemaining;
+        boolean isAtEnd;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        boolean isAtEnd() {
+            return isAtEnd;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (isAtEnd)
+                return -1;
+            if (len == 0)
+                return 0;
+            if (chunkRemaining == 0) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null)
+                    throw new IOException("Connection closed inside chunked content");
+                int semicolon = sizeLine.indexOf(';');
+                if (semicolon >= 0)
+                    sizeLine = sizeLine.substring(0, semicolon);
+                try {
+                    chunkRemaining = Long.parseLong(sizeLine.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad chunk size: " + sizeLine);
+                }
+                if (chunkRemaining == 0) {
+                    // The trailers, if any, then the final blank line
+                    readHeaders(in, new LinkedHashMap<>());
+                    isAtEnd = true;
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, (int)Math.min(len, chunkRemaining));
+            if (n == -1)
+                throw new IOException("Connection closed inside chunked content");
+            chunkRemaining -= n;
+            // The CRLF after the chunk data
+            if (chunkRemaining == 0)
+                readLine(in);
+            return n;
+        }
+    }
+
+    /**
+     * Frames what is written as HTTP/1.1 chunks, one per write, except that
+     * small writes are gathered first.
+     */
+    static class ChunkedOutputStream extends OutputStream {
+        final OutputStream out;
+        final byte[] buffer = new byte[8192];
+        int count;
+
+        ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length)
+                flushChunk();
+            buffer[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len < buffer.length - count) {
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+                return;
+            }
+            flushChunk();
+            writeChunk(b, off, len);
+        }
+
+        private void flushChunk() throws IOException {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        }
+
+        private void writeChunk(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        // The last chunk, which is empty, and no trailers.
+        void finish() throws IOException {
+            flushChunk();
+            out.write(LAST_CHUNK);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    static final byte[] CRLF = {'\r', '\n'};
+    static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+}
@@ -0,0 +1,211 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads many prefixes that share a long common ancestor, like
+ * /Customer/"c1"/orders/[0] through [50], with one getAsJson() on the
+ * ancestor, and then slices the JSON apart again for each prefix. That is one
+ * round trip instead of one per prefix.
+ * 
+ * The ancestor may have much more under it than was asked for, so its JSON
+ * is read only up to a byte budget. If it is bigger, the read is abandoned
+ * and the prefixes are split up by their next component after the ancestor,
+ * and each of those groups is tried the same way on its own narrower
+ * ancestor, concurrently. A group of one is just an ordinary getAsJson().
+ * Prefixes with no common ancestor at all are split up right away.
+ */
+class PrefixCoalescer {
+    final InfinityDBSimpleRestClient client;
+    final int byteBudget;
+    final int concurrency;
+
+    PrefixCoalescer(InfinityDBSimpleRestClient client, int byteBudget, int concurrency) {
+        this.client = client;
+        this.byteBudget = byteBudget;
+        this.concurrency = concurrency;
+    }
+
+    List<JsonElement> getAll(List<Object[]> prefixes) throws IOException {
+        List<Object[]> flatPrefixes = new ArrayList<>();
+        List<String[]> quotedPrefixes = new ArrayList<>();
+        List<Integer> group = new ArrayList<>();
+        for (Object[] prefix : prefixes) {
+            Object[] flatPrefix = Flatten.flatten(prefix);
+            String[] quotedPrefix = new String[flatPrefix.length];
+            for (int i = 0; i < flatPrefix.length; i++)
+                quotedPrefix[i] = JsonParser.qKeyUnderscoreQuoting(toKey(flatPrefix[i]));
+            group.add(flatPrefixes.size());
+            flatPrefixes.add(flatPrefix);
+            quotedPrefixes.add(quotedPrefix);
+        }
+        JsonElement[] results = new JsonElement[prefixes.size()];
+        if (!group.isEmpty())
+            read(flatPrefixes, quotedPrefixes, group, results);
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * Fill in the results for the prefixes with the given indexes. The
+     * quoted prefixes are the same components as underscore-quoted keys,
+     * which compare exactly for finding the common ancestor.
+     * 
+     * The groups that are split go back on the queue for the next round, so
+     * there are never more than 'concurrency' reads in flight, however deep
+     * the splitting goes.
+     */
+    private void read(List<Object[]> prefixes, List<String[]> quotedPrefixes,
+            List<Integer> group, JsonElement[] results) throws IOException {
+        List<List<Integer>> groups = new ArrayList<>();
+        groups.add(group);
+        while (!groups.isEmpty()) {
+            List<FanOut.Call<List<List<Integer>>>> calls = new ArrayList<>();
+            for (List<Integer> g : groups)
+                calls.add(() -> readGroup(prefixes, quotedPrefixes, g, results));
+            groups = new ArrayList<>();
+            for (List<List<Integer>> subGroups : FanOut.run(calls, concurrency, true))
+                groups.addAll(subGroups);
+        }
+    }
+
+    /**
+     * Fill in the results for one group, or else split it up.
+     * 
+     * @return the sub-groups by the next component after the ancestor, or
+     *         none if the group is done.
+     */
+    private List<List<Integer>> readGroup(List<Object[]> prefixes,
+            List<String[]> quotedPrefixes, List<Integer> group,
+            JsonElement[] results) throws IOException {
+        if (group.size() == 1) {
+            int i = group.get(0);
+            results[i] = client.getAsJsonElement(prefixes.get(i));
+            return new ArrayList<>();
+        }
+        int depth = getCommonDepth(quotedPrefixes, group);
+        Object[] ancestor = Arrays.copyOf(prefixes.get(group.get(0)), depth);
+        boolean isAncestorWanted = false;
+        for (int i : group)
+            isAncestorWanted |= prefixes.get(i).length == depth;
+        /*
+         * If the ancestor is wanted itself, we need all of it anyway. If
+         * there is no common ancestor, it would be the whole database, which
+         * is no use.
+         */
+        JsonElement root = isAncestorWanted ? client.getAsJsonElement(ancestor)
+                : depth == 0 ? null : readWithinBudget(ancestor);
+        if (root != null) {
+            for (int i : group)
+                results[i] = slice(root, prefixes.get(i), depth);
+            return new ArrayList<>();
+        }
+        // Too big, so narrow down by the next component.
+        Map<String, List<Integer>> subGroups = new LinkedHashMap<>();
+        for (int i : group) {
+            subGroups.computeIfAbsent(quotedPrefixes.get(i)[depth],
+                    k -> new ArrayList<>()).add(i);
+        }
+        return new ArrayList<>(subGroups.values());
+    }
+
+    static int getCommonDepth(List<String[]> quotedPrefixes, List<Integer> group) {
+        String[] first = quotedPrefixes.get(group.get(0));
+        int depth = first.length;
+        for (int i : group) {
+            String[] quotedPrefix = quotedPrefixes.get(i);
+            depth = Math.min(depth, quotedPrefix.length);
+            for (int j = 0; j < depth; j++) {
+                if (!quotedPrefix[j].equals(first[j])) {
+                    depth = j;
+                    break;
+                }
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * The JSON on the ancestor, or null if there are more than byteBudget
+     * bytes of it. We stop reading as soon as we know.
+     */
+    private JsonElement readWithinBudget(Object[] ancestor) throws IOException {
+        Blob blob;
+        RequestMetrics request;
+        try (BlobInputStream in = client.getAsJsonStream(ancestor)) {
+            request = in.metrics;
+            if (in.getContentLength() > byteBudget)
+                return null;
+            byte[] data = in.readNBytes(byteBudget);
+            if (data.length == byteBudget && in.read() != -1)
+                return null;
+            blob = new Blob(data, in.getContentType());
+        }
+        // Closed first, so the parse is not counted in the transfer.
+        return client.parseJson(blob, false, request);
+    }
+
+    static JsonElement parse(Blob blob, boolean isLazy) {
+        if (blob.length() == 0)
+            return new JsonObject();
+        return isLazy ? new JsonParser(blob).parseLazily() : new JsonParser(blob).parse();
+    }
+
+    /**
+     * The part of the ancestor's JSON under the rest of the prefix. It is
+     * the same set of Items as getAsJson() on the prefix would give,
+     * according to flattenToList(), although the JSON may be written a little
+     * differently: a prefix ending at a single value can come back as just
+     * that JsonValue. If there is nothing there, it is an empty JsonObject.
+     */
+    static JsonElement slice(JsonElement root, Object[] prefix, int depth) {
+        JsonElement element = root;
+        for (int i = depth; i < prefix.length; i++) {
+            // A value at a tip has nothing under it.
+            if (element == null || element.isValue())
+                return new JsonObject();
+            element = element.get(new JsonValue(toKey(prefix[i])));
+        }
+        return element == null ? new JsonObject() : element;
+    }
+
+    /**
+     * A prefix component the way the parser would give it back as a key.
+     * The URL has no distinction between int and long for example.
+     */
+    static Object toKey(Object component) {
+        if (component instanceof Integer || component instanceof Short
+                || component instanceof Byte)
+            return ((Number)component).longValue();
+        if (component instanceof byte[])
+            return new IdbByteArray((byte[])component);
+        if (component instanceof char[])
+            return new IdbCharArray((char[])component);
+        return component;
+    }
+}
@@ -0,0 +1,185 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+/**
+ * What a ClientMetricsListener hears about one request. The latency is broken
+ * down into phases, which are -1 when a phase was never reached or the
+ * transport can't tell:
+ * 
+ * <pre>
+ * queue       waiting for the AdaptiveConcurrencyLimiter
+ * connect     opening a TCP connection, 0 if a kept-alive one was re-used
+ * tls         the handshake on a new https connection
+ * firstByte   from sending the request to having the response headers,
+ *             including connect and tls
+ * transfer    from the headers to the close of the content
+ * </pre>
+ * 
+ * If the response is then parsed into a JsonElement for the caller, the
+ * parse time is added afterwards, and the listener hears of it in onParse().
+ */
+public class RequestMetrics {
+    final String method;
+    final String url;
+    // Like "get", "write" or "execute-query".
+    final String action;
+    // Nullable. "interfaceName/methodName" for the execute actions.
+    final String queryName;
+    // The content length sent, before any compression. 0 if none or not known.
+    final long requestBytes;
+    final long startNanos = System.nanoTime();
+    // When the request went out, after any queueing. 0 until then.
+    long sentNanos;
+    // When the response headers arrived. 0 until then.
+    long headersNanos;
+    long connectNanos = -1;
+    long tlsNanos = -1;
+    long latencyNanos;
+    // 0 if there was no response at all.
+    int status;
+    // The content read, after any decompression.
+    long responseBytes;
+    // Nullable.
+    Throwable failure;
+    // Set after the end, by another thread than a listener may read it on.
+    volatile long parseNanos = -1;
+
+    RequestMetrics(String method, String url, String action, String queryName,
+            long requestBytes) {
+        this.method = method;
+        this.url = url;
+        this.action = action;
+        this.queryName = queryName;
+        this.requestBytes = requestBytes;
+    }
+
+    void sent() {
+        sentNanos = System.nanoTime();
+    }
+
+    void responded(TransportResponse response) {
+        headersNanos = System.nanoTime();
+        connectNanos = response.connectNanos;
+        tlsNanos = response.tlsNanos;
+    }
+
+    void end(int status, long responseBytes, Throwable failure) {
+        this.latencyNanos = System.nanoTime() - startNanos;
+        this.status = status;
+        this.responseBytes = responseBytes;
+        this.failure = failure;
+    }
+
+    void parsed(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    // Without the user name and password, which go in a header.
+    public String getUrl() {
+        return url;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getQueryName() {
+        return queryName;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    // From the start of sending to the close of the content, or the failure.
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public long getQueueNanos() {
+        return sentNanos == 0 ? -1 : sentNanos - startNanos;
+    }
+
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    public long getTlsNanos() {
+        return tlsNanos;
+    }
+
+    public long getTimeToFirstByteNanos() {
+        return sentNanos == 0 || headersNanos == 0 ? -1 : headersNanos - sentNanos;
+    }
+
+    public long getTransferNanos() {
+        return headersNanos == 0 || latencyNanos == 0 ? -1
+                : startNanos + latencyNanos - headersNanos;
+    }
+
+    // -1 if the response was not parsed, or not yet.
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    // The latency plus any parse, as the caller waited for it.
+    public long getTotalNanos() {
+        long parseNanos = this.parseNanos;
+        return parseNanos < 0 ? latencyNanos : latencyNanos + parseNanos;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + action + (queryName != null ? " " + queryName : "")
+                + " status=" + status + " " + latencyNanos / 1000 + "us"
+                + " sent=" + requestBytes + " received=" + responseBytes
+                + " queue=" + toMicros(getQueueNanos())
+                + " connect=" + toMicros(connectNanos)
+                + " tls=" + toMicros(tlsNanos)
+                + " firstByte=" + toMicros(getTimeToFirstByteNanos())
+                + " transfer=" + toMicros(getTransferNanos())
+                + (parseNanos >= 0 ? " parse=" + toMicros(parseNanos) : "")
+                + (failure != null ? " failure=" + failure : "")
+                + " " + url;
+    }
+
+    private static String toMicros(long nanos) {
+        return nanos < 0 ? "?" : nanos / 1000 + "us";
+    }
+}
@@ -0,0 +1,260 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of the responses to get(), getBlob() and getAsJson(), for
+ * reference data that is read far more often than it changes. Give one to
+ * InfinityDBSimpleRestClient.setResponseCache().
+ * 
+ * It holds at most maxBytes of Blob data, dropping the least recently used
+ * responses to make room. A response is fresh for a TTL, which can be set
+ * differently under particular prefixes. After that, if the server sent an
+ * ETag or Last-Modified, the next read asks the server whether it has
+ * changed, and a 304 Not Modified keeps the response for another TTL without
+ * transferring it again.
+ * 
+ * Writes through the client drop the responses on the prefix written, on
+ * everything under it, and on everything above it, since the JSON of an
+ * ancestor includes it. A query can write anything at all, so by default any
+ * execute call drops everything. Writes by other clients are not seen until
+ * the TTL runs out.
+ */
+public class ResponseCache {
+    final long maxBytes;
+    final long defaultTtlMillis;
+    // In access order, so the eldest is the least recently used.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // TTLs by quoted prefix. The longest one that applies wins.
+    private final Map<String, Long> ttlMillisByPath = new LinkedHashMap<>();
+    private long bytes;
+    /*
+     * Incremented on every invalidation. A response is only stored if no
+     * invalidation happened while it was being read, or else a read that
+     * raced with a write could put back the old data.
+     */
+    private long generation;
+    boolean isQueryInvalidating = true;
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder revalidations = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes
+     *            the most Blob data to hold.
+     * @param defaultTtlMillis
+     *            how long a response is used without asking the server,
+     *            where no setTtl() applies.
+     */
+    public ResponseCache(long maxBytes, long defaultTtlMillis) {
+        this.maxBytes = maxBytes;
+        this.defaultTtlMillis = defaultTtlMillis;
+    }
+
+    /**
+     * Use a different TTL for the responses on this prefix and under it. 0
+     * means they are not cached at all.
+     */
+    public synchronized void setTtl(long ttlMillis, Object... prefix) throws IOException {
+        ttlMillisByPath.put(InfinityDBSimpleRestClient.getQuotedUrl(prefix), ttlMillis);
+    }
+
+    /**
+     * Whether an execute call clears the whole cache. Turn this off only if
+     * none of the queries are setters.
+     */
+    public void setQueryInvalidating(boolean isQueryInvalidating) {
+        this.isQueryInvalidating = isQueryInvalidating;
+    }
+
+    /**
+     * Drop the responses on the prefix, under it, and above it. For changes
+     * made other than through the client.
+     */
+    public void invalidate(Object... prefix) throws IOException {
+        invalidatePath(InfinityDBSimpleRestClient.getQuotedUrl(prefix));
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getByteCount() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    // Reads answered without going to the server
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    // Reads that had to transfer a response
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // Reads answered by a 304 Not Modified
+    public long getRevalidationCount() {
+        return revalidations.sum();
+    }
+
+    // Responses dropped to make room
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * One cached response.
+     */
+    static class Entry {
+        // The quoted prefix, for invalidation.
+        final String path;
+        final Blob blob;
+        // Nullable validators from the server.
+        final String eTag;
+        final String lastModified;
+        volatile long expiresNanos;
+
+        Entry(String path, Blob blob, String eTag, String lastModified, long expiresNanos) {
+            this.path = path;
+            this.blob = blob;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expiresNanos = expiresNanos;
+        }
+
+        boolean isFresh() {
+            return expiresNanos - System.nanoTime() > 0;
+        }
+
+        boolean hasValidators() {
+            return eTag != null || lastModified != null;
+        }
+
+        // The headers for asking whether it has changed.
+        Map<String, String> getConditionalHeaders() {
+            Map<String, String> headers = new LinkedHashMap<>();
+            if (eTag != null)
+                headers.put("If-None-Match", eTag);
+            if (lastModified != null)
+                headers.put("If-Modified-Since", lastModified);
+            return headers;
+        }
+
+        long getBytes() {
+            // Roughly counting the key too.
+            return blob.length() + 2 * path.length() + 64;
+        }
+    }
+
+    // Nullable. It may be stale.
+    synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Store a response that was read starting at the given generation.
+     */
+    synchronized void put(String key, String path, Blob blob, String eTag,
+            String lastModified, long startGeneration) {
+        if (startGeneration != generation)
+            return;
+        long ttlMillis = getTtlMillis(path);
+        Entry entry = new Entry(path, blob, eTag, lastModified,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+        remove(key);
+        if (ttlMillis <= 0 || entry.getBytes() > maxBytes)
+            return;
+        entries.put(key, entry);
+        bytes += entry.getBytes();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getBytes();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    // The server said it has not changed, so it is good for another TTL.
+    void revalidated(Entry entry) {
+        entry.expiresNanos = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(getTtlMillis(entry.path));
+        revalidations.increment();
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null)
+            bytes -= old.getBytes();
+    }
+
+    private synchronized long getTtlMillis(String path) {
+        long ttlMillis = defaultTtlMillis;
+        int longest = -1;
+        for (Map.Entry<String, Long> e : ttlMillisByPath.entrySet()) {
+            String ttlPath = e.getKey();
+            if (ttlPath.length() > longest && isAncestorOrSelf(ttlPath, path)) {
+                ttlMillis = e.getValue();
+                longest = ttlPath.length();
+            }
+        }
+        return ttlMillis;
+    }
+
+    synchronized void invalidatePath(String path) {
+        generation++;
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            String entryPath = e.getValue().path;
+            if (isAncestorOrSelf(entryPath, path) || isAncestorOrSelf(path, entryPath))
+                keys.add(e.getKey());
+        }
+        for (String key : keys)
+            remove(key);
+    }
+
+    // The quoted prefixes are like /Customer/%22c1%22, and the root is "".
+    static boolean isAncestorOrSelf(String ancestor, String path) {
+        return path.startsWith(ancestor)
+                && (path.length() == ancestor.length() || path.charAt(ancestor.length()) == '/');
+    }
+}
@@ -0,0 +1,98 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event for each REST round trip, from sending the
+ * request to closing the content, so the client shows up in a recording
+ * next to the rest of the JVM. Retries and hedges are separate events.
+ * 
+ * Like the JSON events, it is enabled by name in the JFR settings, and costs
+ * nothing but a check when JFR is not recording it. A threshold can be set
+ * there as usual.
+ */
+@Name("com.infinitydb.simplerest.RestCall")
+@Label("InfinityDB REST Call")
+@Category({"InfinityDB", "REST"})
+@Description("A request to the InfinityDB server and the reading of its response")
+final class RestCallEvent extends Event {
+    @Label("Method")
+    String method;
+
+    @Label("Action")
+    String action;
+
+    @Label("Prefix Depth")
+    @Description("The number of components in the prefix, or 0 for a query")
+    int prefixDepth;
+
+    @Label("Status")
+    @Description("The HTTP status, or 0 for no response")
+    int status;
+
+    @Label("Request Bytes")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Bytes")
+    @DataAmount
+    long responseBytes;
+
+    /**
+     * The event begun, or null if JFR is not recording it, in which case
+     * nothing else need be done.
+     * 
+     * @param prefix
+     *            may be nested, as for a command. It is only flattened to
+     *            count it if the event is enabled. For the execute actions
+     *            it is the interface and method names, so it counts as 0.
+     */
+    static RestCallEvent begin(String method, String action, Object[] prefix,
+            long requestBytes) {
+        RestCallEvent event = new RestCallEvent();
+        if (!event.isEnabled())
+            return null;
+        event.method = method;
+        event.action = action;
+        event.prefixDepth = action.startsWith("execute") ? 0
+                : Flatten.flatten(prefix).length;
+        event.requestBytes = requestBytes;
+        event.begin();
+        return event;
+    }
+
+    void end(int status, long responseBytes) {
+        end();
+        if (shouldCommit()) {
+            this.status = status;
+            this.responseBytes = responseBytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * When and how soon InfinityDBSimpleRestClient tries an idempotent read
+ * again: get(), getBlob() and getAsJson(). Writes and queries are never
+ * retried, because they may have taken effect even though the response was
+ * lost.
+ * 
+ * The delays are exponential with 'full jitter', meaning a random delay
+ * between 0 and the exponential limit, so that many clients failing at once
+ * don't all come back at once too.
+ * 
+ * Subclass and override isRetryable() for a different idea of what is
+ * transient.
+ */
+public class RetryPolicy {
+    // Just the one attempt.
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    final int maxAttempts;
+    final long baseDelayMillis;
+    final long maxDelayMillis;
+
+    /**
+     * @param maxAttempts
+     *            including the first, so 1 means no retries.
+     * @param baseDelayMillis
+     *            the limit on the delay before the first retry, doubling for
+     *            each one after that.
+     * @param maxDelayMillis
+     *            the most the limit can grow to.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = Math.max(baseDelayMillis, maxDelayMillis);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * A ConnectionException is retryable only for the statuses that say the
+     * server or something in between is having trouble right now: 408
+     * Request Timeout, 429 Too Many Requests, 500, 502 Bad Gateway, 503
+     * Service Unavailable and 504 Gateway Timeout. Other statuses like 401 or
+     * 404 will only come back the same. Otherwise a failure to connect, a
+     * reset or a timeout is retryable, but a bad URL or host name or an SSL
+     * failure is not.
+     */
+    public boolean isRetryable(IOException e) {
+        if (e instanceof ConnectionException) {
+            switch (((ConnectionException)e).getStatusCode()) {
+            case 408: case 429: case 500: case 502: case 503: case 504:
+                return true;
+            default:
+                return false;
+            }
+        }
+        return !(e instanceof UnknownHostException
+                || e instanceof MalformedURLException
+                || e instanceof SSLException);
+    }
+
+    /**
+     * The time to wait before retrying after the failure. If the server sent
+     * Retry-After, as it may with 429 or 503, we wait at least that long. If
+     * that is more than maxDelayMillis, it is -1 for giving up now instead.
+     */
+    public long getDelayMillis(int retry, IOException e) {
+        long delayMillis = getDelayMillis(retry);
+        long retryAfterMillis = e instanceof ConnectionException
+                ? ((ConnectionException)e).getRetryAfterMillis() : -1;
+        if (retryAfterMillis > maxDelayMillis)
+            return -1;
+        return Math.max(delayMillis, retryAfterMillis);
+    }
+
+    /**
+     * The time to wait before the given retry, where the first retry is 1.
+     */
+    public long getDelayMillis(int retry) {
+        if (baseDelayMillis <= 0)
+            return 0;
+        // Don't let the shift overflow.
+        long limit = baseDelayMillis << Math.min(retry - 1, 30);
+        if (limit <= 0 || limit > maxDelayMillis)
+            limit = maxDelayMillis;
+        return ThreadLocalRandom.current().nextLong(limit + 1);
+    }
+}
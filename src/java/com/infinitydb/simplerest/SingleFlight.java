@@ -0,0 +1,134 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lets concurrent identical reads share one request. The first thread to
+ * ask for a key makes the call, and any others asking for the same key
+ * while it is in flight wait for it and get the same Blob, or their own
+ * copy of the same failure. This stops a herd of threads all fetching the
+ * same hot prefix at the same moment.
+ * 
+ * If the first thread was interrupted, that is its own business rather
+ * than a failure of the read, so the others start over, and one of them
+ * makes the call instead.
+ */
+class SingleFlight {
+    private final ConcurrentHashMap<String, CompletableFuture<Blob>> inFlight =
+            new ConcurrentHashMap<>();
+    final LongAdder sharedCount = new LongAdder();
+
+    /**
+     * @param deadline
+     *            Nullable. How long a waiting thread will wait.
+     * @param isCopying
+     *            give the waiting threads their own copy of the Blob.
+     */
+    Blob run(String key, Deadline deadline, boolean isCopying,
+            FanOut.Call<Blob> call) throws IOException {
+        boolean isCounted = false;
+        while (true) {
+            CompletableFuture<Blob> future = new CompletableFuture<>();
+            CompletableFuture<Blob> leader = inFlight.putIfAbsent(key, future);
+            if (leader == null)
+                return lead(key, future, call);
+            if (!isCounted) {
+                sharedCount.increment();
+                isCounted = true;
+            }
+            Blob blob;
+            try {
+                blob = await(leader, deadline);
+            } catch (CancellationException e) {
+                // The leader was interrupted, so try again.
+                continue;
+            }
+            return isCopying ? new Blob(blob.data.clone(), blob.contentType) : blob;
+        }
+    }
+
+    private Blob lead(String key, CompletableFuture<Blob> future,
+            FanOut.Call<Blob> call) throws IOException {
+        Blob blob;
+        try {
+            blob = call.call();
+        } catch (IOException | RuntimeException | Error e) {
+            // Removed first, so a waiter starting over does not find it.
+            inFlight.remove(key, future);
+            if (isInterrupted(e))
+                future.cancel(false);
+            else
+                future.completeExceptionally(e);
+            throw e;
+        }
+        inFlight.remove(key, future);
+        future.complete(blob);
+        return blob;
+    }
+
+    /**
+     * Whether the call failed because its thread was interrupted, as by a
+     * fan-out cancelling it. An interrupted channel throws
+     * ClosedByInterruptException, which is not an InterruptedIOException.
+     */
+    static boolean isInterrupted(Throwable e) {
+        return Thread.currentThread().isInterrupted()
+                || e instanceof InterruptedIOException
+                        && !(e instanceof SocketTimeoutException);
+    }
+
+    private static Blob await(CompletableFuture<Blob> leader, Deadline deadline)
+            throws IOException {
+        try {
+            return deadline == null ? leader.get()
+                    : leader.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw ConnectionException.copyOf((IOException)cause);
+            if (cause instanceof RuntimeException) {
+                RuntimeException copy = ConnectionException.copyOf(
+                        (RuntimeException)cause, RuntimeException.class);
+                throw copy != null ? copy : new RuntimeException(cause.getMessage(), cause);
+            }
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause);
+        } catch (TimeoutException e) {
+            throw deadline.exceeded();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a shared read");
+        }
+    }
+}
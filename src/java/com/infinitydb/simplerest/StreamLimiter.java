@@ -0,0 +1,115 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Limits the requests in flight at once, such as the streams on one HTTP/2
+ * connection. A waiter is a CompletableFuture, so the async client can wait
+ * for a permit without tying up a thread, while the blocking client simply
+ * waits on it.
+ */
+class StreamLimiter {
+    private int available;
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    StreamLimiter(int permits) {
+        this.available = permits;
+    }
+
+    /**
+     * Completes when a permit is ours. Cancel the future to stop waiting.
+     */
+    CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (available > 0) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    /**
+     * Blocks until a permit is ours.
+     * 
+     * @param timeoutMillis
+     *            0 for none.
+     * @throws SocketTimeoutException
+     *             if no permit came free in time.
+     * @throws InterruptedIOException
+     *             if interrupted while waiting.
+     */
+    void acquire(int timeoutMillis) throws IOException {
+        CompletableFuture<Void> waiter = acquire();
+        try {
+            if (timeoutMillis > 0)
+                waiter.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            else
+                waiter.get();
+        } catch (TimeoutException e) {
+            giveUp(waiter);
+            throw new SocketTimeoutException("No stream came free within "
+                    + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            giveUp(waiter);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.toString());
+        } catch (ExecutionException e) {
+            // The waiters are only ever completed normally.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // A permit that arrived just as we gave up must go back.
+    private void giveUp(CompletableFuture<Void> waiter) {
+        if (!waiter.cancel(false))
+            release();
+    }
+
+    void release() {
+        while (true) {
+            CompletableFuture<Void> waiter;
+            synchronized (this) {
+                waiter = waiters.poll();
+                if (waiter == null) {
+                    available++;
+                    return;
+                }
+            }
+            // Skip over any that were cancelled.
+            if (waiter.complete(null))
+                return;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The status, headers and content of a response from an HttpTransport. The
+ * content must be read or the response closed so the connection can be
+ * re-used.
+ */
+class TransportResponse implements Closeable {
+    final int status;
+    final String message;
+    // Case-insensitive names.
+    final Map<String, List<String>> headers =
+            new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    final InputStream in;
+    // Nullable. Done once the content is closed.
+    private final Runnable onClose;
+    /*
+     * How long it took to open the connection, if the transport knows. 0 if
+     * an open connection was re-used and -1 if not known. For TLS, the
+     * handshake may be included in connectNanos, leaving tlsNanos -1.
+     */
+    long connectNanos = -1;
+    long tlsNanos = -1;
+    private boolean isClosed;
+
+    TransportResponse(int status, String message,
+            Map<String, List<String>> headers, InputStream in, Runnable onClose) {
+        this.status = status;
+        this.message = message;
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            // HttpURLConnection puts the status line under a null key.
+            if (e.getKey() != null)
+                this.headers.put(e.getKey(), e.getValue());
+        }
+        this.in = in != null ? in : new ByteArrayInputStream(new byte[0]);
+        this.onClose = onClose;
+    }
+
+    // Nullable.
+    String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    // Nullable.
+    String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    // -1 if not known, as when the content is chunked.
+    long getContentLength() {
+        String contentLength = getHeader("Content-Length");
+        try {
+            return contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The Retry-After header, which is either a number of seconds or an
+     * HTTP date. -1 if there is none or it can't be parsed.
+     */
+    long getRetryAfterMillis() {
+        return parseRetryAfterMillis(getHeader("Retry-After"));
+    }
+
+    // Nullable retryAfter.
+    static long parseRetryAfterMillis(String retryAfter) {
+        if (retryAfter == null)
+            return -1;
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException e) {
+            // Not seconds, so try a date.
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(retryAfter,
+                    DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    boolean isSuccess() {
+        return status == 200 || status == 204;
+    }
+
+    /**
+     * For transports that do not give us the reason phrase. This is like the
+     * message HttpURLConnection uses.
+     */
+    static String statusMessage(int status, Object url) {
+        return "Server returned HTTP response code: " + status
+                + " for URL: " + url;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed)
+            return;
+        isClosed = true;
+        try {
+            in.close();
+        } finally {
+            if (onClose != null)
+                onClose.run();
+        }
+    }
+}
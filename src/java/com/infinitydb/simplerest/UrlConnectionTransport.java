@@ -0,0 +1,137 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.Map;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+
+/**
+ * The original transport, on HttpURLConnection. Connection re-use depends on
+ * the JDK's hidden HTTP/1.1 keep-alive cache.
+ */
+class UrlConnectionTransport implements HttpTransport {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    final boolean isDisableSSLSecurity;
+
+    UrlConnectionTransport(boolean isDisableSSLSecurity) {
+        this.isDisableSSLSecurity = isDisableSSLSecurity;
+    }
+
+    @Override
+    public TransportResponse send(String method, URL url,
+            Map<String, String> headers, BlobSource body,
+            int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        HttpURLConnection urlConnection =
+                (HttpURLConnection)url.openConnection();
+        urlConnection.setConnectTimeout(connectTimeoutMillis);
+        urlConnection.setReadTimeout(readTimeoutMillis);
+        if (isDisableSSLSecurity && urlConnection instanceof HttpsURLConnection) {
+            disableSSLSecurity((HttpsURLConnection)urlConnection);
+        }
+        urlConnection.setRequestMethod(method);
+        // We always do input, but often it will be empty.
+        urlConnection.setDoInput(true);
+        for (Map.Entry<String, String> header : headers.entrySet())
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        boolean isSendingBody = method.equalsIgnoreCase("POST") && body != null;
+        if (isSendingBody) {
+            urlConnection.setDoOutput(true);
+            // Otherwise HttpURLConnection buffers it all to find the length.
+            if (body.getContentLength() >= 0)
+                urlConnection.setFixedLengthStreamingMode(body.getContentLength());
+            else
+                urlConnection.setChunkedStreamingMode(CHUNK_SIZE);
+        }
+        long connectStartNanos = System.nanoTime();
+        // Quick if a kept-alive connection is re-used. Includes any handshake.
+        try {
+            urlConnection.connect();
+        } catch (SocketTimeoutException e) {
+            throw new ConnectTimeoutException("Timed out connecting to " + url, e);
+        }
+        long connectNanos = System.nanoTime() - connectStartNanos;
+
+        // System.out.println("Connection: " +
+        // urlConnection.getHeaderField("Connection"));
+
+        if (isSendingBody) {
+            // Closing it sends the last chunk if chunked.
+            try (OutputStream out = urlConnection.getOutputStream()) {
+                body.writeTo(out, null);
+            }
+        }
+        InputStream in;
+        try {
+            // Throws 403 etc with IOException("Server returned response code 403 for
+            // URL: ...")
+            in = urlConnection.getInputStream();
+        } catch (IOException e) {
+            // Throws again if there is no status at all.
+            urlConnection.getResponseCode();
+            in = urlConnection.getErrorStream();
+        }
+        // does not prevent keep-alive.
+        TransportResponse response = new TransportResponse(
+                urlConnection.getResponseCode(), urlConnection.getResponseMessage(),
+                urlConnection.getHeaderFields(), in, urlConnection::disconnect);
+        response.connectNanos = connectNanos;
+        return response;
+    }
+
+    /**
+     * Don't use this in production!!!!
+     */
+    static void disableSSLSecurity(HttpsURLConnection httpsURLConnection) throws IOException {
+        try {
+            httpsURLConnection.setHostnameVerifier(
+                    new HostnameVerifier() {
+                        @Override
+                        public boolean verify(String hostname,
+                                SSLSession session) {
+                            // Dangerous. Don't do this unless absolutely
+                            // necessary!
+                            return true;
+                        }
+                    });
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] {new TrustAnythingTrustManager()}, 
+                    new SecureRandom());
+            httpsURLConnection.setSSLSocketFactory(sslContext.getSocketFactory());
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
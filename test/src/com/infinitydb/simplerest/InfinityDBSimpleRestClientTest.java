@@ -22,8 +22,33 @@
 
 package com.infinitydb.simplerest;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -112,6 +137,163 @@ public class InfinityDBSimpleRestClientTest {
         JsonElement root = new JsonParser(s).parse();
     }
 
+    // The same documentation line, but multiplexed over one HTTP/2 connection
+    @Test
+    public void testGetHttp2() throws Exception {
+        InfinityDBSimpleRestClient idbHttp2 = new InfinityDBSimpleRestClient(TARGET.host);
+        idbHttp2.setUserNameAndPassWord(TARGET.userName, TARGET.passWord);
+        idbHttp2.setDisableSSLSecurity(TARGET.isDisableSSLSecurity);
+        idbHttp2.setHttp2(true);
+        idbHttp2.setMaxConcurrentStreams(4);
+        PrintTime t = new PrintTime();
+        for (int i = 0; i < 3; i++) {
+            Blob response = idbHttp2.get(new IdbClass("Documentation"), "Basics",
+                    new IdbAttribute("description"), new IdbIndex(0));
+            t.printTime("get http/2", response.length());
+            Assert.assertEquals("application/json", response.getContentType());
+        }
+    }
+
+    // Several documentation lines at once, in order
+    @Test
+    public void testGetAll() throws Exception {
+        InfinityDBSimpleRestClient idb = getClient();
+        List<Object[]> prefixes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            prefixes.add(new Object[] {new IdbClass("Documentation"), "Basics",
+                    new IdbAttribute("description"), new IdbIndex(i)});
+        }
+        PrintTime t = new PrintTime();
+        List<Blob> responses = idb.getAll(prefixes, true);
+        t.printTime("get all x 3", responses.size());
+        Assert.assertEquals(prefixes.size(), responses.size());
+        for (int i = 0; i < prefixes.size(); i++) {
+            Assert.assertEquals(idb.get(prefixes.get(i)).toString(),
+                    responses.get(i).toString());
+        }
+    }
+
+    // Siblings read through their common ancestor match separate reads
+    @Test
+    public void testGetAllAsJson() throws Exception {
+        InfinityDBSimpleRestClient idb = getClient();
+        List<Object[]> prefixes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            prefixes.add(new Object[] {new IdbClass("Documentation"), "Basics",
+                    new IdbAttribute("description"), new IdbIndex(i)});
+        }
+        PrintTime t = new PrintTime();
+        List<JsonElement> responses = idb.getAllAsJson(prefixes);
+        t.printTime("get all as json x 3", responses.size());
+        for (int i = 0; i < prefixes.size(); i++) {
+            JsonElement single = new JsonParser(
+                    idb.getAsJson(prefixes.get(i)).toString()).parse();
+            Assert.assertEquals(single.flattenToList(), responses.get(i).flattenToList());
+        }
+    }
+
+    // Repeated reads come from the cache until a write through the client
+    @Test
+    public void testResponseCache() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            InfinityDBSimpleRestClient idbCached = new InfinityDBSimpleRestClient(server.getUrl());
+            ResponseCache cache = new ResponseCache(1 << 20, 60_000);
+            idbCached.setResponseCache(cache);
+            Object[] prefix = {new IdbClass("Trash"), new IdbClass("JavaDemo"),
+                    new IdbClass("DemoCachedPost")};
+            idbCached.putBlob(new Blob("first", "text/plain"), prefix);
+            PrintTime t = new PrintTime();
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals("first", idbCached.getBlob(prefix).toString());
+                t.printTime("cached get blob", 0);
+            }
+            Assert.assertEquals(1, cache.getMissCount());
+            Assert.assertEquals(2, cache.getHitCount());
+            Assert.assertEquals(1, server.getRequestCount("get-blob"));
+            idbCached.putBlob(new Blob("second", "text/plain"), prefix);
+            Assert.assertEquals("second", idbCached.getBlob(prefix).toString());
+        }
+    }
+
+    // Identical concurrent gets share requests but all get the content
+    @Test
+    public void testSingleFlight() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+            // Long enough for the gets to overlap.
+            server.setLatency(50, 0);
+            InfinityDBSimpleRestClient idb = new InfinityDBSimpleRestClient(server.getUrl());
+            List<Object[]> prefixes = new ArrayList<>();
+            for (int i = 0; i < 16; i++)
+                prefixes.add(new Object[] {new IdbClass("Doc"), "one"});
+            PrintTime t = new PrintTime();
+            List<Blob> responses = idb.getAll(prefixes, true);
+            t.printTime("identical gets x 16, shared=" + idb.getSharedReadCount(), 0);
+            for (Blob response : responses)
+                Assert.assertEquals("hello", response.toString());
+            Assert.assertTrue(idb.getSharedReadCount() > 0);
+            Assert.assertEquals(16, server.getRequestCount("get") + idb.getSharedReadCount());
+        }
+    }
+
+    // Pre-warmed connections are re-used by the gets
+    @Test
+    public void testConnectionPool() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+            InfinityDBSimpleRestClient idbPooled = new InfinityDBSimpleRestClient(server.getUrl());
+            ConnectionPool pool = new ConnectionPool(4, 30_000);
+            idbPooled.setConnectionPool(pool);
+            PrintTime t = new PrintTime();
+            Assert.assertEquals(2, idbPooled.prewarm(2));
+            t.printTime("prewarm 2", 0);
+            for (int i = 0; i < 3; i++) {
+                Blob response = idbPooled.get(new IdbClass("Doc"), "one");
+                Assert.assertEquals("hello", response.toString());
+                t.printTime("pooled get", response.length());
+            }
+            Assert.assertEquals(2, pool.getNewConnectionCount());
+            Assert.assertEquals(3, pool.getReusedConnectionCount());
+            pool.close();
+        }
+    }
+
+    // Streaming gives the same content as the buffered Blob
+    @Test
+    public void testGetStream() throws Exception {
+        InfinityDBSimpleRestClient idb = getClient();
+        PrintTime t = new PrintTime();
+        Blob response = idb.get(new IdbClass("Query"));
+        t.printTime("get", response.length());
+        try (BlobInputStream in = idb.getStream(new IdbClass("Query"))) {
+            byte[] streamed = in.readAllBytes();
+            t.printTime("get stream", streamed.length);
+            Assert.assertEquals(response.getContentType(), in.getContentType());
+            Assert.assertArrayEquals(response.data, streamed);
+        }
+    }
+
+    // Many requests in flight at once without a thread for each
+    @Test
+    public void testAsyncGet() throws Exception {
+        InfinityDBAsyncRestClient idbAsync = new InfinityDBAsyncRestClient(TARGET.host);
+        idbAsync.setUserNameAndPassWord(TARGET.userName, TARGET.passWord);
+        idbAsync.setDisableSSLSecurity(TARGET.isDisableSSLSecurity);
+        PrintTime t = new PrintTime();
+        List<CompletableFuture<Blob>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(idbAsync.get(new IdbClass("Documentation"), "Basics",
+                    new IdbAttribute("description"), new IdbIndex(0)));
+        }
+        int len = 0;
+        for (CompletableFuture<Blob> future : futures) {
+            Blob response = future.get();
+            Assert.assertEquals("application/json", response.getContentType());
+            len += response.length();
+        }
+        t.printTime("async get x 10", len);
+    }
+
     @Test
     public void testPutBlob() throws Exception {
         InfinityDBSimpleRestClient idb = getClient();
@@ -125,6 +307,896 @@ public class InfinityDBSimpleRestClientTest {
         }
     }
 
+    // Straight from a file without a byte[] for the whole thing
+    @Test
+    public void testPutBlobFromFile() throws Exception {
+        InfinityDBSimpleRestClient idb = getClient();
+        PrintTime t = new PrintTime();
+        Path file = Files.createTempFile("infinitydb-put-blob", ".txt");
+        try {
+            Files.write(file, "hello from a Java file".getBytes("UTF-8"));
+            idb.putBlob(file, "text/plain", new IdbClass("Trash"),
+                    new IdbClass("JavaDemo"), new IdbClass("DemoFilePost"));
+            t.printTime("put blob from file", (int)Files.size(file));
+            Blob response = idb.getBlob(new IdbClass("Trash"),
+                    new IdbClass("JavaDemo"), new IdbClass("DemoFilePost"));
+            Assert.assertEquals("hello from a Java file", response.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // A compressed response decodes to the same content
+    @Test
+    public void testAcceptCompression() throws Exception {
+        InfinityDBSimpleRestClient idb = getClient();
+        Blob plain = idb.getAsJson(new IdbClass("Documentation"));
+        idb.setAcceptCompression(true);
+        PrintTime t = new PrintTime();
+        Blob decompressed = idb.getAsJson(new IdbClass("Documentation"));
+        t.printTime("get compressed", decompressed.length());
+        Assert.assertEquals(plain.toString(), decompressed.toString());
+        System.out.println(idb.getCompressionStats());
+    }
+
+    // Only transient statuses and network failures are retried
+    @Test
+    public void testRetryPolicy() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy(4, 50, 200);
+        Assert.assertTrue(retryPolicy.isRetryable(new ConnectionException(503, "busy")));
+        Assert.assertTrue(retryPolicy.isRetryable(new java.net.SocketTimeoutException()));
+        Assert.assertFalse(retryPolicy.isRetryable(new ConnectionException(404, "missing")));
+        Assert.assertFalse(retryPolicy.isRetryable(new java.net.UnknownHostException()));
+        for (int retry = 1; retry < 10; retry++) {
+            long delay = retryPolicy.getDelayMillis(retry);
+            Assert.assertTrue(delay >= 0 && delay <= Math.min(200, 50 << (retry - 1)));
+        }
+    }
+
+    // The limit shrinks on overload and fail-fast refuses beyond it
+    @Test
+    public void testAdaptiveConcurrencyLimiter() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 20);
+        limiter.acquire(null);
+        limiter.onDropped(-1);
+        Assert.assertEquals(9, limiter.getLimit());
+        limiter.setFailFast(true);
+        for (int i = 0; i < 9; i++)
+            limiter.acquire(null);
+        try {
+            limiter.acquire(null);
+            Assert.fail("Expected the limit to be reached");
+        } catch (ConnectionException e) {
+            Assert.assertEquals(429, e.getStatusCode());
+        }
+        for (int i = 0; i < 9; i++)
+            limiter.onSuccess(1_000_000);
+        Assert.assertEquals(0, limiter.getInFlight());
+        Assert.assertEquals(1, limiter.getRejectedCount());
+    }
+
+    // Percentiles are within the histogram's bucket precision
+    @Test
+    public void testLatencyHistogram() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10_000; micros++)
+            histogram.record(micros * 1000);
+        Assert.assertEquals(10_000, histogram.getCount());
+        Assert.assertEquals(5_000_000, histogram.getPercentileNanos(0.5), 5_000_000 * 0.07);
+        Assert.assertEquals(9_900_000, histogram.getPercentileNanos(0.99), 9_900_000 * 0.07);
+        Assert.assertEquals(10_000_000, histogram.getMaxNanos());
+    }
+
+    // The stub server stores, appends, queries and authenticates like the real one
+    @Test
+    public void testStubServer() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.setUserNameAndPassWord("testUser", "db");
+            server.setQuery("com.infinitydb.test", "echo",
+                    (stub, requestContent, params) -> requestContent);
+            InfinityDBSimpleRestClient idbStub = new InfinityDBSimpleRestClient(server.getUrl());
+            idbStub.setUserNameAndPassWord("testUser", "db");
+            idbStub.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+            Assert.assertEquals("hello", idbStub.get(new IdbClass("Doc"), "one").toString());
+            Assert.assertEquals("text/plain",
+                    idbStub.getBlob(new IdbClass("Doc"), "one").getContentType());
+            idbStub.appendBlob(new Blob("first"), new IdbClass("List"));
+            idbStub.appendBlob(new Blob("second"), new IdbClass("List"));
+            Assert.assertEquals("second",
+                    idbStub.get(new IdbClass("List"), new IdbIndex(1)).toString());
+            Assert.assertTrue(idbStub.getAsJsonElement(new IdbClass("Nothing")).isEmpty());
+            Blob request = new Blob("{ \"_a\" : \"_1\" }", "application/json");
+            Assert.assertEquals(request.toString(),
+                    idbStub.executeQuery("com.infinitydb.test", "echo", request, null).toString());
+
+            InfinityDBSimpleRestClient idbWrongPassWord = new InfinityDBSimpleRestClient(server.getUrl());
+            idbWrongPassWord.setUserNameAndPassWord("testUser", "wrong");
+            try {
+                idbWrongPassWord.get(new IdbClass("Doc"));
+                Assert.fail();
+            } catch (ConnectionException e) {
+                Assert.assertEquals(401, e.getStatusCode());
+            }
+
+            // Every injected error is retried away.
+            server.setErrorRate(0.2, 503);
+            idbStub.setRetryPolicy(new RetryPolicy(10, 1, 10));
+            for (int i = 0; i < 20; i++)
+                Assert.assertEquals("hello", idbStub.get(new IdbClass("Doc"), "one").toString());
+            // Three gets went before the twenty.
+            Assert.assertEquals(server.getRequestCount("get") - 23, idbStub.getRetryCount());
+        }
+    }
+
+    // The skewed key choosers favour their hot keys and stay in range
+    @Test
+    public void testLoadGeneratorKeyChoosers() throws Exception {
+        SplittableRandom random = new SplittableRandom(1);
+        LoadGenerator.KeyChooser zipfian = new LoadGenerator.ZipfianKeyChooser(1000, 0.99);
+        LoadGenerator.KeyChooser hotspot = new LoadGenerator.HotspotKeyChooser(1000, 0.1, 0.9);
+        int[] zipfianCounts = new int[1000];
+        int hotCount = 0;
+        for (int i = 0; i < 100_000; i++) {
+            zipfianCounts[(int)zipfian.next(random)]++;
+            if (hotspot.next(random) < 100)
+                hotCount++;
+        }
+        // Zipf's law: the top key is about twice as popular as the second.
+        Assert.assertTrue(zipfianCounts[0] > zipfianCounts[1] * 1.5);
+        Assert.assertTrue(zipfianCounts[1] > zipfianCounts[100]);
+        Assert.assertEquals(0.9, hotCount / 100_000.0, 0.01);
+    }
+
+    // Reads spread over the replicas away from a slow one, writes go to the primary
+    @Test
+    public void testHostBalancer() throws Exception {
+        // Not resources, as they are closed or started part way through.
+        StubInfinityDBServer fast = new StubInfinityDBServer();
+        StubInfinityDBServer slow = new StubInfinityDBServer();
+        StubInfinityDBServer revived = null;
+        try (StubInfinityDBServer primary = new StubInfinityDBServer()) {
+            // Warmed up, so the first reads are not slow for both.
+            for (StubInfinityDBServer server : new StubInfinityDBServer[] {primary, fast, slow}) {
+                server.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+                new InfinityDBSimpleRestClient(server.getUrl()).get(new IdbClass("Doc"), "one");
+            }
+            slow.setLatency(20, 0);
+            HostBalancer hostBalancer = new HostBalancer(
+                    Arrays.asList(fast.getUrl(), slow.getUrl()));
+            hostBalancer.setProbeInterval(0);
+            InfinityDBSimpleRestClient idbBalanced = new InfinityDBSimpleRestClient(primary.getUrl());
+            idbBalanced.setHostBalancer(hostBalancer);
+            for (int i = 0; i < 50; i++)
+                Assert.assertEquals("hello", idbBalanced.get(new IdbClass("Doc"), "one").toString());
+            System.out.println(hostBalancer);
+            Assert.assertTrue(fast.getRequestCount("get") > slow.getRequestCount("get") * 3);
+            Assert.assertEquals(1, primary.getRequestCount("get"));
+            idbBalanced.putBlob(new Blob("bye"), new IdbClass("Doc"), "two");
+            Assert.assertEquals(1, primary.getRequestCount("write"));
+            Assert.assertEquals(0, fast.getRequestCount("write") + slow.getRequestCount("write"));
+
+            // A replica that can't be reached is ejected, and the retry goes elsewhere.
+            idbBalanced.setRetryPolicy(new RetryPolicy(3, 0, 0));
+            fast.close();
+            for (int i = 0; i < 10; i++)
+                Assert.assertEquals("hello", idbBalanced.get(new IdbClass("Doc"), "one").toString());
+            Assert.assertEquals(Arrays.asList(slow.getUrl()), hostBalancer.getHealthyHosts());
+
+            // With every replica ejected, the reads go to the primary.
+            int slowPort = URI.create(slow.getUrl()).getPort();
+            slow.close();
+            Assert.assertEquals("hello", idbBalanced.get(new IdbClass("Doc"), "one").toString());
+            Assert.assertTrue(hostBalancer.getHealthyHosts().isEmpty());
+            long slowReads = hostBalancer.getReadCount(slow.getUrl());
+            long primaryReads = primary.getRequestCount("get");
+            for (int i = 0; i < 5; i++)
+                Assert.assertEquals("hello", idbBalanced.get(new IdbClass("Doc"), "one").toString());
+            Assert.assertEquals(slowReads, hostBalancer.getReadCount(slow.getUrl()));
+            Assert.assertEquals(primaryReads + 5, primary.getRequestCount("get"));
+
+            // An ejected host that answers its probe takes reads again.
+            revived = new StubInfinityDBServer(0, slowPort);
+            revived.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+            for (int i = 0; i < 100 && hostBalancer.getHealthyHosts().isEmpty(); i++) {
+                Assert.assertEquals("hello", idbBalanced.get(new IdbClass("Doc"), "one").toString());
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Arrays.asList(slow.getUrl()), hostBalancer.getHealthyHosts());
+            Assert.assertEquals("hello", idbBalanced.get(new IdbClass("Doc"), "one").toString());
+            Assert.assertEquals(slowReads + 1, hostBalancer.getReadCount(slow.getUrl()));
+            Assert.assertEquals(1, revived.getRequestCount("get"));
+        } finally {
+            fast.close();
+            slow.close();
+            if (revived != null)
+                revived.close();
+        }
+    }
+
+    // Parsing needs no stack for deep nesting, and strings may end in an escape
+    @Test
+    public void testParseDeepAndEscaped() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100_000; i++)
+            sb.append("{ \"_a\" : [");
+        sb.append("\"_5\"");
+        for (int i = 0; i < 100_000; i++)
+            sb.append("] }");
+        JsonElement element = new JsonParser(sb.toString()).parse();
+        for (int i = 0; i < 100_000; i++)
+            element = element.get(new IdbAttribute("a")).get(new IdbIndex(0));
+        Assert.assertEquals(new JsonValue(5L), element);
+
+        JsonElement root = new JsonParser(
+                "{ \"line\\n\" : \"C:\\\\\", \"_Ec\" : [ \"__x\", \"\\u0041\" ] }").parse();
+        Assert.assertEquals(new JsonValue("C:\\"), root.get("line\n"));
+        Assert.assertEquals(new JsonValue("_x"), root.get(new IdbClass("Ec")).get(new IdbIndex(0)));
+        Assert.assertEquals(new JsonValue("A"), root.get(new IdbClass("Ec")).get(new IdbIndex(1)));
+    }
+
+    // UTF-8 parses in place to the same tree as the decoded String
+    @Test
+    public void testParseUtf8() throws Exception {
+        String json = "{ \"caf\u00e9\" : { \"_Cls\" : [ \"_5\", \"\u6f22\u5b57\\n\", \"\ud83d\ude00\" ] } }";
+        byte[] utf8 = ("[ " + json + " ]").getBytes("UTF-8");
+        JsonElement root = new JsonParser(new Blob(json)).parse();
+        Assert.assertEquals(new JsonParser(json).parse(), root);
+        Assert.assertEquals(root, new JsonParser(utf8, 2, utf8.length - 4).parse());
+        Assert.assertEquals(new JsonValue("\u6f22\u5b57\n"),
+                root.get("caf\u00e9").get(new IdbClass("Cls")).get(new IdbIndex(1)));
+    }
+
+    // The reader streams a response as events and elements, skipping what is not wanted
+    @Test
+    public void testJsonReader() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            for (long i = 0; i < 1000; i++)
+                server.insert(new IdbClass("Orders"), i, new IdbAttribute("item"), "widget " + i);
+            server.insert(new IdbClass("Zebra"), new IdbAttribute("stripes"), 42L);
+            InfinityDBSimpleRestClient idbStub = new InfinityDBSimpleRestClient(server.getUrl());
+            try (JsonReader reader = new JsonReader(idbStub.getAsJsonStream())) {
+                Assert.assertEquals(JsonReader.Event.START_OBJECT, reader.next());
+                Assert.assertEquals(JsonReader.Event.KEY, reader.next());
+                Assert.assertEquals(new IdbClass("Orders"), reader.getComponent());
+                Assert.assertEquals(JsonReader.Event.START_OBJECT, reader.next());
+                long n = 0;
+                while (reader.next() == JsonReader.Event.KEY) {
+                    Assert.assertEquals(n, reader.getComponent());
+                    JsonElement order = reader.readElement();
+                    Assert.assertEquals(new JsonValue("widget " + n), order.get(new IdbAttribute("item")));
+                    n++;
+                }
+                Assert.assertEquals(1000, n);
+                Assert.assertEquals(JsonReader.Event.KEY, reader.next());
+                Assert.assertEquals(new IdbClass("Zebra"), reader.getComponent());
+                reader.skipValue();
+                Assert.assertEquals(JsonReader.Event.END_OBJECT, reader.next());
+                Assert.assertEquals(0, reader.getDepth());
+                Assert.assertNull(reader.next());
+            }
+        }
+    }
+
+    // Items come straight from the stream, the same as parsing and flattening
+    @Test
+    public void testJsonItemReader() throws Exception {
+        String json = "{ \"_Orders\" : [ { \"_id\" : \"_1\" }, [ ], \"_Cls\" ], \"_x\" : { }, \"_y\" : true }";
+        Set<List<Object>> expected = new HashSet<>();
+        for (List<Object> item : new JsonParser(json).parse().flattenToList()) {
+            List<Object> components = new ArrayList<>();
+            for (Object o : item)
+                components.add(((JsonValue)o).value());
+            expected.add(components);
+        }
+        Set<List<Object>> items = new HashSet<>();
+        try (JsonItemReader reader = new JsonItemReader(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+            reader.forEachRemaining(item -> items.add(Arrays.asList(item)));
+        }
+        Assert.assertEquals(3, items.size());
+        Assert.assertEquals(expected, items);
+        Assert.assertTrue(items.contains(Arrays.asList(new IdbClass("Orders"),
+                new IdbIndex(0), new IdbAttribute("id"), 1L)));
+
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            for (long i = 0; i < 1000; i++)
+                server.insert(new IdbClass("Orders"), i, new IdbAttribute("item"), "widget " + i);
+            InfinityDBSimpleRestClient idbStub = new InfinityDBSimpleRestClient(server.getUrl());
+            long n = 0;
+            try (JsonItemReader reader = idbStub.getItemReader(new IdbClass("Orders"))) {
+                for (Object[] item; (item = reader.nextItem()) != null; n++) {
+                    Assert.assertArrayEquals(new Object[] {
+                            n, new IdbAttribute("item"), "widget " + n }, item);
+                }
+            }
+            Assert.assertEquals(1000, n);
+        }
+    }
+
+    // A lazy parse decodes only what is used, and is otherwise the same tree
+    @Test
+    public void testParseLazily() throws Exception {
+        String json = "{ \"_Orders\" : [ { \"_id\" : \"_1\", \"_note\" : \"a ] } \\\" , :\" }, [ ], \"_Cls\" ],"
+                + " \"_x\" : { }, \"_y\" : true }";
+        JsonElement lazy = new JsonParser(json).parseLazily();
+        Assert.assertTrue(lazy instanceof JsonObject);
+        Assert.assertEquals(new JsonParser(json).parse(), lazy);
+        Assert.assertEquals(new JsonParser(json).parse().toString(), lazy.toString());
+
+        // A malformed part that is never used is never decoded.
+        String broken = "{ \"_bad\" : [ 1 2 ], \"_good\" : { \"_z\" : \"_5\" } }";
+        JsonElement partial = new JsonParser(broken).parseLazily();
+        Assert.assertEquals(new JsonValue(5L),
+                partial.get(new IdbAttribute("good")).get(new IdbAttribute("z")));
+        JsonElement bad = partial.get(new IdbAttribute("bad"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                bad.size();
+                Assert.fail();
+            } catch (RuntimeException e) {
+                Assert.assertEquals("Missing ] in JSON", e.getMessage());
+            }
+        }
+        try {
+            new JsonParser("{ \"_a\" : [ 1 } ").parseLazily();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals("Missing ] in JSON", e.getMessage());
+        }
+
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            for (long i = 0; i < 100; i++)
+                server.insert(new IdbClass("Orders"), i, new IdbAttribute("item"), "widget " + i);
+            InfinityDBSimpleRestClient idbStub = new InfinityDBSimpleRestClient(server.getUrl());
+            JsonElement orders = idbStub.getAsLazyJsonElement(new IdbClass("Orders"));
+            Assert.assertEquals(new JsonValue("widget 42"),
+                    orders.get(42L).get(new IdbAttribute("item")));
+            Assert.assertEquals(idbStub.getAsJsonElement(new IdbClass("Orders")), orders);
+        }
+    }
+
+    // Escapes at every offset in a word don't confuse the eight-byte string scan
+    @Test
+    public void testJsonScanner() throws Exception {
+        StringBuilder sb = new StringBuilder("[ ");
+        for (int i = 0; i < 40; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < i; j++)
+                text.append(j % 3 == 0 ? '\u00e9' : 'x');
+            text.append(i % 2 == 0 ? "\\\\" : "\\\"").append(", ] }").append(i % 5 == 0 ? "\\" : "");
+            sb.append(i == 0 ? "" : ", ").append(JsonParser.convertToJsonString(text.toString()));
+        }
+        String json = sb.append(" ]").toString();
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        JsonElement lazy = new JsonParser(utf8, 0, utf8.length).parseLazily();
+        Assert.assertEquals(40, lazy.size());
+        Assert.assertEquals(new JsonParser(json).parse(), lazy);
+
+        byte[] unterminated = "{ \"_a\" : \"abcdefghijklmnop".getBytes(StandardCharsets.UTF_8);
+        try {
+            new JsonParser(unterminated, 0, unterminated.length).parseLazily();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals("Unterminated string in JSON", e.getMessage());
+        }
+    }
+
+    // A quick failure cancels the other calls and is the one thrown
+    @Test
+    public void testFanOutCancelOnFailure() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            List<FanOut.Call<String>> calls = new ArrayList<>();
+            calls.add(() -> {
+                throw new IOException("first");
+            });
+            for (int i = 1; i < 50; i++) {
+                calls.add(() -> {
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    return "slow";
+                });
+            }
+            long start = System.nanoTime();
+            try {
+                FanOut.run(calls, 50, true);
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertEquals("first", e.getMessage());
+            }
+            Assert.assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        }
+    }
+
+    // Dates format and parse correctly from many threads at once
+    @Test
+    public void testConcurrentDates() throws Exception {
+        ExecutorService executor = FanOut.newExecutor(8);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            long seed = t;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                int wrong = 0;
+                for (int i = 0; i < 5000; i++) {
+                    Date date = new Date(random.nextLong(0, 4_000_000_000_000L));
+                    Object quoted = JsonParser.qValue(date, true);
+                    if (!date.equals(JsonParser.unQuote(quoted, true)))
+                        wrong++;
+                }
+                return wrong;
+            }, executor));
+        }
+        try {
+            for (CompletableFuture<Integer> future : futures)
+                Assert.assertEquals(0, (int)future.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Waiting for a stream gives up at the timeout or on an interrupt, and the permit is not lost
+    @Test
+    public void testStreamLimiterTimeout() throws Exception {
+        StreamLimiter streamLimiter = new StreamLimiter(1);
+        streamLimiter.acquire(0);
+        try {
+            streamLimiter.acquire(50);
+            Assert.fail("acquired a second permit");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        Thread.currentThread().interrupt();
+        try {
+            streamLimiter.acquire(0);
+            Assert.fail("acquired a second permit");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(Thread.interrupted());
+        }
+        streamLimiter.release();
+        streamLimiter.acquire(50);
+        streamLimiter.release();
+    }
+
+    // An endless header line is refused rather than buffered
+    @Test
+    public void testReadLineLimit() throws Exception {
+        byte[] bytes = new byte[PooledTransport.MAX_LINE_LENGTH + 3];
+        Arrays.fill(bytes, (byte)'a');
+        bytes[bytes.length - 2] = '\r';
+        bytes[bytes.length - 1] = '\n';
+        Assert.assertEquals(PooledTransport.MAX_LINE_LENGTH,
+                PooledTransport.readLine(new ByteArrayInputStream(bytes, 1, bytes.length - 1)).length());
+        try {
+            PooledTransport.readLine(new ByteArrayInputStream(bytes));
+            Assert.fail("read an over-long line");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // The first request on a prewarmed connection still reports its connect time
+    @Test
+    public void testPrewarmedMetrics() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.insert(new IdbClass("Doc"), "one", "hello");
+            InfinityDBSimpleRestClient idbPooled = new InfinityDBSimpleRestClient(server.getUrl());
+            ConnectionPool pool = new ConnectionPool(1, 30_000);
+            idbPooled.setConnectionPool(pool);
+            List<RequestMetrics> requests = new ArrayList<>();
+            idbPooled.setMetricsListener(requests::add);
+            Assert.assertEquals(1, idbPooled.prewarm(1));
+            for (int i = 0; i < 2; i++)
+                idbPooled.getAsJsonElement(new IdbClass("Doc"));
+            Assert.assertEquals(2, requests.size());
+            Assert.assertTrue(requests.get(0).getConnectNanos() > 0);
+            Assert.assertEquals(0, requests.get(1).getConnectNanos());
+            Assert.assertEquals(1, pool.getNewConnectionCount());
+            pool.close();
+        }
+    }
+
+    // Each thread sharing a failed read gets its own copy of the failure, of the same type
+    @Test
+    public void testSingleFlightFailure() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        ConnectionException failure = new ConnectionException(503, "Unavailable", 1000);
+        FanOut.Call<Blob> failingCall = () -> {
+            // Fail only once the others are waiting on us.
+            while (singleFlight.sharedCount.sum() < 3)
+                Thread.yield();
+            throw failure;
+        };
+        ExecutorService executor = FanOut.newExecutor(4);
+        List<CompletableFuture<IOException>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    singleFlight.run("key", null, false, failingCall);
+                    return null;
+                } catch (IOException e) {
+                    return e;
+                }
+            }, executor));
+        }
+        try {
+            Set<IOException> thrown = new HashSet<>();
+            for (CompletableFuture<IOException> future : futures) {
+                ConnectionException e = (ConnectionException)future.get();
+                Assert.assertEquals(503, e.getStatusCode());
+                Assert.assertEquals(1000, e.getRetryAfterMillis());
+                Assert.assertTrue(e == failure || e.getCause() == failure);
+                thrown.add(e);
+            }
+            Assert.assertEquals(4, thrown.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // A bad async request fails its future rather than throwing
+    @Test
+    public void testAsyncGetWithBlob() throws Exception {
+        InfinityDBAsyncRestClient idbAsync = new InfinityDBAsyncRestClient("http://localhost");
+        CompletableFuture<Blob> future = idbAsync.command("GET", null, new Blob("hello"), null,
+                new IdbClass("Doc"));
+        try {
+            future.get();
+            Assert.fail("sent a GET with a Blob");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    // A caller waits for a busy pool only up to its connect timeout, and a closed pool opens nothing
+    @Test
+    public void testConnectionPoolTimeout() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+            InfinityDBSimpleRestClient idbPooled = new InfinityDBSimpleRestClient(server.getUrl());
+            ConnectionPool pool = new ConnectionPool(1, 30_000);
+            idbPooled.setConnectionPool(pool);
+            idbPooled.setConnectTimeout(200);
+            idbPooled.setRetryPolicy(new RetryPolicy(1, 0, 0));
+            // Holds the only connection until it is closed.
+            BlobInputStream held = idbPooled.getStream(new IdbClass("Doc"), "one");
+            long startNanos = System.nanoTime();
+            try {
+                idbPooled.get(new IdbClass("Doc"), "one");
+                Assert.fail("got a connection from a full pool");
+            } catch (SocketTimeoutException e) {
+                Assert.assertTrue(System.nanoTime() - startNanos < 5_000_000_000L);
+            }
+            held.close();
+            Assert.assertEquals("hello", idbPooled.get(new IdbClass("Doc"), "one").toString());
+            pool.close();
+            try {
+                idbPooled.get(new IdbClass("Doc"), "one");
+                Assert.fail("used a closed pool");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("closed"));
+            }
+            Assert.assertEquals(1, pool.getNewConnectionCount());
+        }
+    }
+
+    // A replica that fails fast is avoided rather than preferred, and a connect timeout ejects
+    @Test
+    public void testHostBalancerFailures() throws Exception {
+        try (StubInfinityDBServer primary = new StubInfinityDBServer();
+                StubInfinityDBServer good = new StubInfinityDBServer();
+                StubInfinityDBServer failing = new StubInfinityDBServer()) {
+            good.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+            good.setLatency(5, 0);
+            failing.setErrorRate(1.0, 503);
+            HostBalancer hostBalancer = new HostBalancer(
+                    Arrays.asList(good.getUrl(), failing.getUrl()));
+            InfinityDBSimpleRestClient idbBalanced = new InfinityDBSimpleRestClient(primary.getUrl());
+            idbBalanced.setHostBalancer(hostBalancer);
+            idbBalanced.setRetryPolicy(new RetryPolicy(1, 0, 0));
+            int failures = 0;
+            for (int i = 0; i < 50; i++) {
+                try {
+                    Assert.assertEquals("hello", idbBalanced.get(new IdbClass("Doc"), "one").toString());
+                } catch (ConnectionException e) {
+                    Assert.assertEquals(503, e.getStatusCode());
+                    failures++;
+                }
+            }
+            System.out.println(hostBalancer);
+            Assert.assertEquals(failures, hostBalancer.getReadCount(failing.getUrl()));
+            Assert.assertTrue(failures < 5);
+            // A 503 shows the host is there, so it stays in.
+            Assert.assertEquals(2, hostBalancer.getHealthyHosts().size());
+        }
+        Assert.assertTrue(HostBalancer.isConnectionFailure(
+                new ConnectTimeoutException("Timed out connecting")));
+        Assert.assertFalse(HostBalancer.isConnectionFailure(
+                new SocketTimeoutException("Read timed out")));
+    }
+
+    // Coalesced reads that split many times still keep to the fan-out concurrency
+    @Test
+    public void testGetAllAsJsonSplitting() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            List<Object[]> prefixes = new ArrayList<>();
+            for (int c = 0; c < 4; c++) {
+                for (int i = 0; i < 4; i++) {
+                    for (int j = 0; j < 2; j++) {
+                        server.insert(new IdbClass("C" + c), "s" + i, new IdbIndex(j), "x");
+                        prefixes.add(new Object[] {new IdbClass("C" + c), "s" + i, new IdbIndex(j)});
+                    }
+                }
+            }
+            server.setLatency(5, 0);
+            InfinityDBSimpleRestClient idb = new InfinityDBSimpleRestClient(server.getUrl());
+            // Too small for any ancestor, so every prefix is read on its own.
+            idb.setCoalescingByteBudget(5);
+            idb.setFanOutConcurrency(3);
+            AtomicInteger inFlight = new AtomicInteger();
+            AtomicInteger maxInFlight = new AtomicInteger();
+            idb.setMetricsListener(new ClientMetricsListener() {
+                @Override
+                public void onRequestStart(RequestMetrics request) {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                }
+
+                @Override
+                public void onRequestEnd(RequestMetrics request) {
+                    inFlight.decrementAndGet();
+                }
+            });
+            List<JsonElement> responses = idb.getAllAsJson(prefixes);
+            Assert.assertTrue(maxInFlight.get() <= 3);
+            // No read of the whole database, as there is no common ancestor.
+            Assert.assertEquals(4 + 16 + 32, server.getRequestCount("as-json"));
+            for (int i = 0; i < prefixes.size(); i++) {
+                Assert.assertEquals(idb.getAsJsonElement(prefixes.get(i)).flattenToList(),
+                        responses.get(i).flattenToList());
+            }
+        }
+    }
+
+    // Waiters on a shared read whose leader is interrupted make the read themselves
+    @Test
+    public void testSingleFlightLeaderInterrupted() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch isLeading = new CountDownLatch(1);
+        IOException[] leaderFailure = new IOException[1];
+        Thread leader = new Thread(() -> {
+            try {
+                singleFlight.run("key", null, false, () -> {
+                    isLeading.countDown();
+                    try {
+                        Thread.sleep(60_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Cancelled");
+                    }
+                    return new Blob("stale");
+                });
+            } catch (IOException e) {
+                leaderFailure[0] = e;
+            }
+        });
+        leader.start();
+        isLeading.await();
+        ExecutorService executor = FanOut.newExecutor(3);
+        List<CompletableFuture<Blob>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return singleFlight.run("key", null, false, () -> new Blob("fresh"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        try {
+            while (singleFlight.sharedCount.sum() < 3)
+                Thread.sleep(1);
+            leader.interrupt();
+            leader.join();
+            Assert.assertTrue(leaderFailure[0] instanceof InterruptedIOException);
+            for (CompletableFuture<Blob> future : futures)
+                Assert.assertEquals("fresh", future.get().toString());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // An empty response marked as gzipped, like a 204, is just empty
+    @Test
+    public void testEmptyGzipResponse() throws Exception {
+        Assert.assertEquals(0, ContentEncoding.decode(new byte[0], "gzip", null).length);
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.setCompressing(true);
+            server.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+            InfinityDBSimpleRestClient idb = new InfinityDBSimpleRestClient(server.getUrl());
+            idb.setAcceptCompression(true);
+            Assert.assertEquals(0, idb.getBlob(new IdbClass("Doc"), "none").length());
+            Assert.assertEquals("hello", idb.getBlob(new IdbClass("Doc"), "one").toString());
+        }
+    }
+
+    // A parse is added to the request it came from, and can make it slow
+    @Test
+    public void testParseMetrics() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.insert(new IdbClass("Doc"), "one", new IdbAttribute("title"), "One");
+            InfinityDBSimpleRestClient idbMetered = new InfinityDBSimpleRestClient(server.getUrl());
+            idbMetered.setResponseCache(new ResponseCache(1 << 20, 60_000));
+            List<RequestMetrics> ended = new ArrayList<>();
+            List<RequestMetrics> parsed = new ArrayList<>();
+            idbMetered.setMetricsListener(new ClientMetricsListener() {
+                @Override
+                public void onRequestEnd(RequestMetrics request) {
+                    ended.add(request);
+                }
+
+                @Override
+                public void onParse(RequestMetrics request, long bytes, long parseNanos) {
+                    parsed.add(request);
+                    Assert.assertTrue(bytes > 0);
+                }
+            });
+            idbMetered.getAsJsonElement(new IdbClass("Doc"), "one");
+            // From the cache, so there is no request.
+            idbMetered.getAsJsonElement(new IdbClass("Doc"), "one");
+            Assert.assertEquals(1, ended.size());
+            Assert.assertEquals(Arrays.asList(ended.get(0), null), parsed);
+            RequestMetrics request = ended.get(0);
+            Assert.assertTrue(request.getParseNanos() >= 0);
+            Assert.assertEquals(request.getLatencyNanos() + request.getParseNanos(),
+                    request.getTotalNanos());
+            Assert.assertTrue(request.toString().contains(" parse="));
+        }
+        // A fast request that was slow to parse.
+        InMemoryClientMetrics metrics = new InMemoryClientMetrics();
+        metrics.setSlowRequestThreshold(10, 2);
+        RequestMetrics request = new RequestMetrics("GET", "http://x", "as-json", null, 0);
+        metrics.onRequestStart(request);
+        request.end(200, 100, null);
+        metrics.onRequestEnd(request);
+        Assert.assertTrue(metrics.getSlowRequests().isEmpty());
+        request.parsed(20_000_000);
+        metrics.onParse(request, 100, 20_000_000);
+        Assert.assertEquals(Collections.singletonList(request), metrics.getSlowRequests());
+        metrics.onParse(null, 100, 20_000_000);
+        Assert.assertEquals(2, metrics.getParseHistogram().getCount());
+        Assert.assertEquals(1, metrics.getSlowRequests().size());
+    }
+
+    // With the thresholds at zero, every parse, write and flatten is recorded
+    @Test
+    public void testJsonFlightRecorderEvents() throws Exception {
+        Path file = Files.createTempFile("json", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"JsonParse", "JsonWrite", "JsonFlatten"})
+                recording.enable("com.infinitydb.simplerest." + name).withThreshold(Duration.ZERO);
+            recording.start();
+            JsonElement root = new JsonParser(
+                    "{ \"_att\" : \"hi\", \"_Ec\" : { \"_5\" : \"_5.0\" }}").parse();
+            root.toString();
+            root.flattenToList();
+            recording.stop();
+            recording.dump(file);
+        }
+        List<String> names = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file))
+            names.add(event.getEventType().getName());
+        Files.delete(file);
+        Assert.assertTrue(names.contains("com.infinitydb.simplerest.JsonParse"));
+        Assert.assertTrue(names.contains("com.infinitydb.simplerest.JsonWrite"));
+        Assert.assertTrue(names.contains("com.infinitydb.simplerest.JsonFlatten"));
+    }
+
+    // A RestCall event counts the flattened prefix, and none for a query
+    @Test
+    public void testRestCallFlightRecorderEvents() throws Exception {
+        Path file = Files.createTempFile("rest", ".jfr");
+        try (StubInfinityDBServer server = new StubInfinityDBServer();
+                Recording recording = new Recording()) {
+            server.putBlob(new Blob("hello"), new IdbClass("Doc"), "one", 2L);
+            server.setQuery("com.infinitydb.test", "echo",
+                    (stub, requestContent, params) -> requestContent);
+            InfinityDBSimpleRestClient idbRecorded = new InfinityDBSimpleRestClient(server.getUrl());
+            recording.enable("com.infinitydb.simplerest.RestCall").withThreshold(Duration.ZERO);
+            recording.start();
+            idbRecorded.get(new IdbClass("Doc"), new Object[] {"one", 2L});
+            idbRecorded.executeQuery("com.infinitydb.test", "echo",
+                    new Blob("{}", "application/json"), null);
+            recording.stop();
+            recording.dump(file);
+        }
+        List<String> depths = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals("com.infinitydb.simplerest.RestCall"))
+                depths.add(event.getString("action") + "=" + event.getInt("prefixDepth"));
+        }
+        Files.delete(file);
+        Assert.assertEquals(Arrays.asList("get=3", "execute-query=0"), depths);
+    }
+
+    // Every request shows up in the metrics, by action
+    @Test
+    public void testMetrics() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.putBlob(new Blob("hello"), new IdbClass("Doc"), "one");
+            InfinityDBSimpleRestClient idbMetered = new InfinityDBSimpleRestClient(server.getUrl());
+            InMemoryClientMetrics metrics = new InMemoryClientMetrics();
+            idbMetered.setMetricsListener(metrics);
+            for (int i = 0; i < 3; i++)
+                idbMetered.get(new IdbClass("Doc"), "one");
+            System.out.println(metrics);
+            Assert.assertEquals(3, metrics.getActionHistogram("get").getCount());
+            Assert.assertEquals(3, metrics.getStatusCount(200));
+            Assert.assertEquals(0, metrics.getInFlight());
+        }
+    }
+
+    // Every request over the threshold is sampled, with its phases and URL
+    @Test
+    public void testSlowRequests() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            server.insert(new IdbClass("Documentation"), "Basics", new IdbAttribute("title"), "Basics");
+            // Every request is slower than the threshold.
+            server.setLatency(5, 0);
+            InfinityDBSimpleRestClient idbMetered = new InfinityDBSimpleRestClient(server.getUrl());
+            idbMetered.setConnectionPool(new ConnectionPool(2, 30000));
+            InMemoryClientMetrics metrics = new InMemoryClientMetrics();
+            metrics.setSlowRequestThreshold(1, 2);
+            idbMetered.setMetricsListener(metrics);
+            for (int i = 0; i < 3; i++)
+                idbMetered.getAsJsonElement(new IdbClass("Documentation"), "Basics");
+            System.out.println(metrics);
+            List<RequestMetrics> slowRequests = metrics.getSlowRequests();
+            Assert.assertEquals(2, slowRequests.size());
+            for (RequestMetrics request : slowRequests) {
+                Assert.assertEquals("as-json", request.getAction());
+                Assert.assertTrue(request.getUrl().contains("Documentation"));
+                // The connection was re-used.
+                Assert.assertEquals(0, request.getConnectNanos());
+                Assert.assertTrue(request.getTimeToFirstByteNanos() > 0);
+                Assert.assertTrue(request.getTransferNanos() >= 0);
+            }
+            Assert.assertEquals(3, metrics.getParseHistogram().getCount());
+        }
+    }
+
+    // Hedged and retried reads give the same content as plain ones
+    @Test
+    public void testGetHedged() throws Exception {
+        try (StubInfinityDBServer server = new StubInfinityDBServer()) {
+            Object[] prefix = {new IdbClass("Doc"), "one"};
+            server.putBlob(new Blob("hello"), prefix);
+            // A long tail to hedge against, and some failures to retry.
+            server.setLatency(1, 20);
+            server.setErrorRate(0.1, 503);
+            InfinityDBSimpleRestClient idbHedged = new InfinityDBSimpleRestClient(server.getUrl());
+            idbHedged.setConnectTimeout(5000);
+            idbHedged.setReadTimeout(10000);
+            idbHedged.setDeadline(30000);
+            idbHedged.setRetryPolicy(new RetryPolicy(5, 1, 10));
+            idbHedged.setHedging(true);
+            PrintTime t = new PrintTime();
+            // Hedging starts once there are enough latencies for a p95.
+            for (int i = 0; i < 100; i++)
+                Assert.assertEquals("hello", idbHedged.get(prefix).toString());
+            // Far past the p95 of the above, so these are surely hedged.
+            server.setErrorRate(0, 503);
+            server.setLatency(100, 0);
+            for (int i = 0; i < 3; i++)
+                Assert.assertEquals("hello", idbHedged.get(prefix).toString());
+            t.printTime("hedged get x 103, hedges=" + idbHedged.getHedgeCount()
+                    + ", retries=" + idbHedged.getRetryCount(), 0);
+            Assert.assertTrue(idbHedged.getHedgeCount() > 0);
+            Assert.assertTrue(idbHedged.getRetryCount() > 0);
+        }
+    }
+
     @Test
     public void testExecute() throws Exception {
         testExecute("exec get image",
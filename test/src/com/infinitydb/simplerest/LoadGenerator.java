@@ -0,0 +1,571 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives an InfinityDBSimpleRestClient with a synthetic workload, in the
+ * spirit of YCSB, to see how it holds up before an upgrade. For example:
+ * 
+ * <pre>
+ * java com.infinitydb.simplerest.LoadGenerator --stub --rate 2000 \
+ *     --mix get=60,getAsJson=20,putBlob=15,appendBlob=5 \
+ *     --distribution zipfian --threads 64 --duration 30
+ * </pre>
+ * 
+ * With --rate, the load is open-loop: operation i is meant to start at
+ * i / rate seconds, whether or not the earlier ones have finished, and its
+ * response time is measured from then. A stall then shows up in the
+ * percentiles as it would for real users, instead of quietly holding back
+ * the load, which is the coordinated omission problem. The service time,
+ * from when it actually started, is reported as well. Without --rate, each
+ * thread goes as fast as it can and the two are the same.
+ * 
+ * Run it with --help for the options. It can target any endpoint, or with
+ * --stub a StubInfinityDBServer in the same JVM.
+ */
+public class LoadGenerator {
+    // Where the keys go, so as not to disturb anything else.
+    static final IdbClass KEY_CLASS = new IdbClass("LoadGenerator");
+    static final IdbClass LIST_CLASS = new IdbClass("LoadGeneratorList");
+    static final String QUERY_INTERFACE = "com.infinitydb.loadgenerator";
+    static final String QUERY_METHOD = "echo";
+
+    enum Operation {
+        GET("get"),
+        GET_AS_JSON("getAsJson"),
+        PUT_BLOB("putBlob"),
+        APPEND_BLOB("appendBlob"),
+        EXECUTE_QUERY("executeQuery");
+
+        final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        static Operation forName(String name) {
+            for (Operation operation : values()) {
+                if (operation.name.equals(name))
+                    return operation;
+            }
+            throw new IllegalArgumentException("Unknown operation: " + name);
+        }
+    }
+
+    /**
+     * Picks the key for each operation from 0 to keyCount - 1.
+     */
+    interface KeyChooser {
+        long next(SplittableRandom random);
+    }
+
+    static class UniformKeyChooser implements KeyChooser {
+        final long keyCount;
+
+        UniformKeyChooser(long keyCount) {
+            this.keyCount = keyCount;
+        }
+
+        @Override
+        public long next(SplittableRandom random) {
+            return random.nextLong(keyCount);
+        }
+    }
+
+    /**
+     * Key 0 is the most popular, then key 1, and so on, with popularity
+     * falling off as 1 / rank^theta. This is the method of Gray et al,
+     * "Quickly Generating Billion-Record Synthetic Databases", as YCSB uses.
+     */
+    static class ZipfianKeyChooser implements KeyChooser {
+        final long keyCount;
+        final double theta;
+        final double zetaN;
+        final double alpha;
+        final double eta;
+
+        ZipfianKeyChooser(long keyCount, double theta) {
+            this.keyCount = keyCount;
+            this.theta = theta;
+            this.zetaN = zeta(keyCount, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta))
+                    / (1 - zeta(2, theta) / zetaN);
+        }
+
+        static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++)
+                sum += 1 / Math.pow(i, theta);
+            return sum;
+        }
+
+        @Override
+        public long next(SplittableRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1)
+                return 0;
+            if (uz < 1 + Math.pow(0.5, theta))
+                return Math.min(1, keyCount - 1);
+            long key = (long)(keyCount * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(key, keyCount - 1);
+        }
+    }
+
+    // A fraction of the keys gets a fraction of the operations, uniformly.
+    static class HotspotKeyChooser implements KeyChooser {
+        final long keyCount;
+        final long hotKeyCount;
+        final double hotOperationFraction;
+
+        HotspotKeyChooser(long keyCount, double hotKeyFraction, double hotOperationFraction) {
+            this.keyCount = keyCount;
+            this.hotKeyCount = Math.max(1, Math.min(keyCount, (long)(keyCount * hotKeyFraction)));
+            this.hotOperationFraction = hotOperationFraction;
+        }
+
+        @Override
+        public long next(SplittableRandom random) {
+            if (hotKeyCount == keyCount || random.nextDouble() < hotOperationFraction)
+                return random.nextLong(hotKeyCount);
+            return hotKeyCount + random.nextLong(keyCount - hotKeyCount);
+        }
+    }
+
+    /**
+     * What happened to one kind of operation. The response time is from the
+     * intended start, and the service time is from the actual start.
+     */
+    static class OperationStats {
+        final LatencyHistogram responseTimes = new LatencyHistogram();
+        final LatencyHistogram serviceTimes = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+    }
+
+    // The options, with their defaults.
+    String url;
+    String userName;
+    String passWord;
+    boolean isStub;
+    int stubLatencyMillis;
+    int stubJitterMillis;
+    double stubErrorRate;
+    String transport = "urlconnection";
+    int poolSize = 64;
+    boolean isCompressing;
+    int threads = 16;
+    boolean isVirtualThreads;
+    // 0 for closed-loop.
+    double rate;
+    int durationSeconds = 10;
+    int warmupSeconds = 2;
+    int reportSeconds = 5;
+    long keyCount = 1000;
+    String distribution = "uniform";
+    double zipfianTheta = 0.99;
+    double hotKeyFraction = 0.2;
+    double hotOperationFraction = 0.8;
+    int minPayloadBytes = 100;
+    int maxPayloadBytes = 1000;
+    boolean isPreloading = true;
+    long seed = 1;
+    final Map<Operation, Double> mix = new LinkedHashMap<>();
+    String queryInterface = QUERY_INTERFACE;
+    String queryMethod = QUERY_METHOD;
+
+    // Set up by run().
+    InfinityDBSimpleRestClient client;
+    KeyChooser keyChooser;
+    Operation[] operations;
+    double[] cumulativeWeights;
+    byte[] payloadSource;
+    final Map<Operation, OperationStats> stats = new LinkedHashMap<>();
+    final LatencyHistogram allResponseTimes = new LatencyHistogram();
+    final LongAdder completed = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator loadGenerator = new LoadGenerator();
+        try {
+            loadGenerator.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+        loadGenerator.run();
+    }
+
+    static void printUsage() {
+        System.err.println(String.join("\n",
+                "Usage: java com.infinitydb.simplerest.LoadGenerator [options]",
+                "  --url URL                the database URL, like http://localhost:37411/infinitydb/data/demo/writeable",
+                "  --stub                   run against a StubInfinityDBServer in this JVM instead",
+                "  --stub-latency MILLIS    injected into each stub response (0)",
+                "  --stub-jitter MILLIS     up to this much more, uniformly (0)",
+                "  --stub-error-rate R      the fraction of stub responses that are 503 (0)",
+                "  --user NAME --password PASSWORD",
+                "  --transport T            urlconnection, pooled or http2 (urlconnection)",
+                "  --pool-size N            connections per host for pooled (64)",
+                "  --compress               accept compressed responses",
+                "  --threads N              concurrent operations at most (16)",
+                "  --virtual-threads        make the threads virtual, on Java 21 or later",
+                "  --rate OPS               per second, open-loop; 0 for closed-loop (0)",
+                "  --duration SECONDS       measured (10)",
+                "  --warmup SECONDS         run before measuring (2)",
+                "  --report SECONDS         between progress lines (5)",
+                "  --mix OP=W,...           weights of get, getAsJson, putBlob, appendBlob",
+                "                           and executeQuery (get=50,getAsJson=20,putBlob=30)",
+                "  --keys N                 the number of distinct keys (1000)",
+                "  --distribution D         uniform, zipfian or hotspot (uniform)",
+                "  --zipfian-theta T        the skew for zipfian (0.99)",
+                "  --hotspot F,OPS          the fraction of the keys that get the fraction",
+                "                           of the operations for hotspot (0.2,0.8)",
+                "  --payload MIN[-MAX]      Blob size in bytes, uniform (100-1000)",
+                "  --query INTERFACE/METHOD for executeQuery (" + QUERY_INTERFACE + "/" + QUERY_METHOD + ")",
+                "  --no-preload             don't write every key before starting",
+                "  --seed N                 for the keys, operations and payloads (1)"));
+    }
+
+    void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            String value = null;
+            int equals = arg.indexOf('=');
+            if (equals > 0) {
+                value = arg.substring(equals + 1);
+                arg = arg.substring(0, equals);
+            }
+            switch (arg) {
+            case "--stub": isStub = true; continue;
+            case "--compress": isCompressing = true; continue;
+            case "--virtual-threads": isVirtualThreads = true; continue;
+            case "--no-preload": isPreloading = false; continue;
+            case "--help": throw new IllegalArgumentException("");
+            }
+            if (value == null) {
+                if (i + 1 >= args.length)
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                value = args[++i];
+            }
+            try {
+                switch (arg) {
+                case "--url": url = value; break;
+                case "--user": userName = value; break;
+                case "--password": passWord = value; break;
+                case "--stub-latency": stubLatencyMillis = Integer.parseInt(value); break;
+                case "--stub-jitter": stubJitterMillis = Integer.parseInt(value); break;
+                case "--stub-error-rate": stubErrorRate = Double.parseDouble(value); break;
+                case "--transport": transport = value; break;
+                case "--pool-size": poolSize = Integer.parseInt(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--rate": rate = Double.parseDouble(value); break;
+                case "--duration": durationSeconds = Integer.parseInt(value); break;
+                case "--warmup": warmupSeconds = Integer.parseInt(value); break;
+                case "--report": reportSeconds = Integer.parseInt(value); break;
+                case "--mix": parseMix(value); break;
+                case "--keys": keyCount = Long.parseLong(value); break;
+                case "--distribution": distribution = value; break;
+                case "--zipfian-theta": zipfianTheta = Double.parseDouble(value); break;
+                case "--hotspot":
+                    String[] hotspot = value.split(",");
+                    hotKeyFraction = Double.parseDouble(hotspot[0]);
+                    hotOperationFraction = Double.parseDouble(hotspot[1]);
+                    break;
+                case "--payload":
+                    String[] payload = value.split("-");
+                    minPayloadBytes = Integer.parseInt(payload[0]);
+                    maxPayloadBytes = Integer.parseInt(payload[payload.length - 1]);
+                    break;
+                case "--query":
+                    int slash = value.lastIndexOf('/');
+                    queryInterface = value.substring(0, slash);
+                    queryMethod = value.substring(slash + 1);
+                    break;
+                case "--seed": seed = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+            }
+        }
+        if (url == null && !isStub)
+            throw new IllegalArgumentException("Give --url or --stub");
+        if (keyCount < 1 || threads < 1 || minPayloadBytes < 0
+                || maxPayloadBytes < minPayloadBytes)
+            throw new IllegalArgumentException("Bad --keys, --threads or --payload");
+        if (mix.isEmpty())
+            parseMix("get=50,getAsJson=20,putBlob=30");
+    }
+
+    void parseMix(String value) {
+        mix.clear();
+        for (String entry : value.split(",")) {
+            String[] nameAndWeight = entry.split("=");
+            double weight = Double.parseDouble(nameAndWeight[1]);
+            if (weight > 0)
+                mix.put(Operation.forName(nameAndWeight[0].trim()), weight);
+        }
+        if (mix.isEmpty())
+            throw new IllegalArgumentException("Empty --mix");
+    }
+
+    void run() throws Exception {
+        StubInfinityDBServer stub = isStub ? startStub() : null;
+        try {
+            setUp(stub != null ? stub.getUrl() : url);
+            if (isPreloading)
+                preload();
+            System.out.println(describe());
+            runLoad();
+            System.out.println(report());
+        } finally {
+            if (stub != null)
+                stub.close();
+        }
+    }
+
+    StubInfinityDBServer startStub() throws IOException {
+        StubInfinityDBServer stub = new StubInfinityDBServer(seed);
+        stub.setUserNameAndPassWord(userName, passWord);
+        stub.setLatency(stubLatencyMillis, stubJitterMillis);
+        stub.setErrorRate(stubErrorRate, 503);
+        stub.setCompressing(isCompressing);
+        stub.setQuery(QUERY_INTERFACE, QUERY_METHOD,
+                (server, requestContent, params) -> requestContent);
+        return stub;
+    }
+
+    void setUp(String url) throws IOException {
+        client = new InfinityDBSimpleRestClient(url);
+        if (userName != null)
+            client.setUserNameAndPassWord(userName, passWord);
+        switch (transport) {
+        case "urlconnection": break;
+        case "pooled": client.setConnectionPool(new ConnectionPool(poolSize, 30000)); break;
+        case "http2": client.setHttp2(true); break;
+        default: throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+        client.setAcceptCompression(isCompressing);
+        switch (distribution) {
+        case "uniform": keyChooser = new UniformKeyChooser(keyCount); break;
+        case "zipfian": keyChooser = new ZipfianKeyChooser(keyCount, zipfianTheta); break;
+        case "hotspot":
+            keyChooser = new HotspotKeyChooser(keyCount, hotKeyFraction, hotOperationFraction);
+            break;
+        default: throw new IllegalArgumentException("Unknown distribution: " + distribution);
+        }
+        operations = mix.keySet().toArray(new Operation[0]);
+        cumulativeWeights = new double[operations.length];
+        double total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+        for (int i = 0; i < operations.length; i++)
+            cumulativeWeights[i] /= total;
+        for (Operation operation : operations)
+            stats.put(operation, new OperationStats());
+        payloadSource = new byte[Math.max(1, maxPayloadBytes)];
+        new SplittableRandom(seed).nextBytes(payloadSource);
+    }
+
+    // So that the reads find something.
+    void preload() throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        long startNanos = System.nanoTime();
+        for (long key = 0; key < keyCount; key++)
+            client.putBlob(newPayload(random), KEY_CLASS, key);
+        System.out.printf(Locale.ROOT, "Preloaded %d keys in %.1fs%n", keyCount,
+                (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    void runLoad() throws InterruptedException {
+        ExecutorService executor = isVirtualThreads ? FanOut.newVirtualThreadExecutor() : null;
+        if (executor == null) {
+            if (isVirtualThreads)
+                System.out.println("No virtual threads before Java 21, so using platform threads");
+            executor = Executors.newFixedThreadPool(threads);
+        }
+        AtomicLong nextOperation = new AtomicLong();
+        long startNanos = System.nanoTime();
+        long measureNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long endNanos = measureNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (int i = 0; i < threads; i++) {
+            SplittableRandom random = new SplittableRandom(seed * 1_000_003 + i);
+            executor.execute(() -> runThread(random, nextOperation, startNanos,
+                    measureNanos, endNanos));
+        }
+        executor.shutdown();
+        long lastCompleted = 0;
+        long lastNanos = startNanos;
+        while (!executor.awaitTermination(reportSeconds, TimeUnit.SECONDS)) {
+            long now = System.nanoTime();
+            long count = completed.sum();
+            System.out.printf(Locale.ROOT, "%6.1fs %s %10.1f ops/s%n",
+                    (now - startNanos) / 1e9, now < measureNanos ? "warmup " : "measure",
+                    (count - lastCompleted) * 1e9 / (now - lastNanos));
+            lastCompleted = count;
+            lastNanos = now;
+        }
+    }
+
+    void runThread(SplittableRandom random, AtomicLong nextOperation,
+            long startNanos, long measureNanos, long endNanos) {
+        long intervalNanos = rate > 0 ? (long)(1e9 / rate) : 0;
+        while (true) {
+            long intendedNanos;
+            if (rate > 0) {
+                intendedNanos = startNanos + nextOperation.getAndIncrement() * intervalNanos;
+                if (intendedNanos >= endNanos)
+                    return;
+                // Behind schedule means no wait, but the lateness still counts.
+                long waitNanos;
+                while ((waitNanos = intendedNanos - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(waitNanos);
+            } else {
+                intendedNanos = System.nanoTime();
+                if (intendedNanos >= endNanos)
+                    return;
+            }
+            Operation operation = chooseOperation(random);
+            long serviceStartNanos = System.nanoTime();
+            boolean isError = false;
+            try {
+                execute(operation, random);
+            } catch (IOException | RuntimeException e) {
+                isError = true;
+            }
+            long doneNanos = System.nanoTime();
+            completed.increment();
+            if (intendedNanos < measureNanos)
+                continue;
+            OperationStats operationStats = stats.get(operation);
+            operationStats.responseTimes.record(doneNanos - intendedNanos);
+            operationStats.serviceTimes.record(doneNanos - serviceStartNanos);
+            allResponseTimes.record(doneNanos - intendedNanos);
+            if (isError)
+                operationStats.errors.increment();
+        }
+    }
+
+    Operation chooseOperation(SplittableRandom random) {
+        double r = random.nextDouble();
+        for (int i = 0; i < operations.length - 1; i++) {
+            if (r < cumulativeWeights[i])
+                return operations[i];
+        }
+        return operations[operations.length - 1];
+    }
+
+    void execute(Operation operation, SplittableRandom random) throws IOException {
+        long key = keyChooser.next(random);
+        switch (operation) {
+        case GET:
+            client.get(KEY_CLASS, key);
+            break;
+        case GET_AS_JSON:
+            client.getAsJson(KEY_CLASS, key);
+            break;
+        case PUT_BLOB:
+            client.putBlob(newPayload(random), KEY_CLASS, key);
+            break;
+        case APPEND_BLOB:
+            client.appendBlob(newPayload(random), LIST_CLASS, key);
+            break;
+        case EXECUTE_QUERY:
+            client.executeQuery(queryInterface, queryMethod,
+                    new Blob(newPayloadJson(key), "application/json"), null);
+            break;
+        }
+    }
+
+    Blob newPayload(SplittableRandom random) {
+        int length = minPayloadBytes + random.nextInt(maxPayloadBytes - minPayloadBytes + 1);
+        return new Blob(Arrays.copyOf(payloadSource, length), "application/octet-stream");
+    }
+
+    static byte[] newPayloadJson(long key) {
+        return ("{ \"_key\" : \"_" + key + "\" }").getBytes(StandardCharsets.UTF_8);
+    }
+
+    String describe() {
+        List<String> mixes = new ArrayList<>();
+        for (Map.Entry<Operation, Double> e : mix.entrySet())
+            mixes.add(e.getKey().name + "=" + e.getValue());
+        return String.format(Locale.ROOT,
+                "%s over %s, %d %s threads, %s, %d keys %s, payload %d-%d bytes, mix %s",
+                isStub ? "stub" : url, transport, threads,
+                isVirtualThreads ? "virtual" : "platform",
+                rate > 0 ? "open-loop at " + rate + " ops/s" : "closed-loop",
+                keyCount, distribution, minPayloadBytes, maxPayloadBytes, mixes);
+    }
+
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        long count = allResponseTimes.getCount();
+        sb.append(String.format(Locale.ROOT, "%nThroughput %.1f ops/s over %ds%n",
+                count / (double)durationSeconds, durationSeconds));
+        sb.append(String.format(Locale.ROOT, "%-13s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "mean ms", "p50", "p90", "p99", "p99.9", "max"));
+        for (Map.Entry<Operation, OperationStats> e : stats.entrySet()) {
+            OperationStats operationStats = e.getValue();
+            appendRow(sb, e.getKey().name, operationStats.responseTimes,
+                    operationStats.errors.sum());
+            // Only different when the load is open-loop.
+            if (rate > 0)
+                appendRow(sb, "  service", operationStats.serviceTimes, -1);
+        }
+        appendRow(sb, "all", allResponseTimes, -1);
+        if (rate > 0)
+            sb.append("Response times are from when each operation was meant to start.");
+        return sb.toString();
+    }
+
+    // errors is -1 to leave it out.
+    static void appendRow(StringBuilder sb, String name, LatencyHistogram histogram, long errors) {
+        sb.append(String.format(Locale.ROOT, "%-13s %9d %7s %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                name, histogram.getCount(), errors < 0 ? "" : Long.toString(errors),
+                histogram.getMeanNanos() / 1e6,
+                histogram.getPercentileNanos(0.5) / 1e6,
+                histogram.getPercentileNanos(0.9) / 1e6,
+                histogram.getPercentileNanos(0.99) / 1e6,
+                histogram.getPercentileNanos(0.999) / 1e6,
+                histogram.getMaxNanos() / 1e6));
+    }
+}
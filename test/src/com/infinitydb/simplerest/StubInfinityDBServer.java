@@ -0,0 +1,599 @@
+// MIT License
+//
+// Copyright (c) 2023 Roger L. Deran
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+package com.infinitydb.simplerest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the InfinityDB Server, in-process on the JDK's
+ * com.sun.net.httpserver, so the clients can be tested and benchmarked on a
+ * laptop without a live server. It speaks the REST actions the clients do,
+ * over an in-memory sorted ItemSpace:
+ * 
+ * <pre>
+ * GET  (no action)              the Blob on the prefix if there is one, else JSON
+ * GET  get-blob                 the Blob on the prefix, or 204 No Content
+ * GET  as-json                  everything under the prefix as JSON
+ * POST write                    replace everything under the prefix with the Blob
+ * POST append                   put the Blob at the next Index under the prefix
+ * POST execute-query            run the Query given to setQuery()
+ * POST execute-get-blob-query   the same, but a Blob result is sent as it is
+ * POST execute-put-blob-query   the same, for a Query that is sent a Blob
+ * </pre>
+ * 
+ * Blobs are stored as the real server stores them, under the
+ * com.infinitydb.blob attribute, so as-json shows their structure. The
+ * component types sort nearly as they do there, with Indexes last.
+ * 
+ * There is optional Basic authentication, and injected latency, jitter and
+ * errors. These come from a seeded Random, so a run is repeatable as far as
+ * the thread scheduling allows.
+ */
+public final class StubInfinityDBServer implements Closeable {
+    static final String DATABASE_PATH = "/infinitydb/data/demo/writeable";
+    static final IdbAttribute BLOB = new IdbAttribute("com.infinitydb.blob");
+    static final IdbAttribute BLOB_BYTES = new IdbAttribute("com.infinitydb.blob.bytes");
+    static final IdbAttribute BLOB_MIME_TYPE = new IdbAttribute("com.infinitydb.blob.mimeType");
+    // As the other clients chunk them.
+    static final int BLOB_CHUNK_SIZE = 1024;
+
+    static {
+        /*
+         * Otherwise small responses wait on Nagle's algorithm and the
+         * client's delayed ACK, for tens of milliseconds each. This is read
+         * once, when the first HttpServer is made.
+         */
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    final HttpServer httpServer;
+    final ExecutorService executor;
+    final ItemSpace itemSpace = new ItemSpace();
+    // The key is "interfaceName/methodName".
+    final Map<String, Query> queries = new ConcurrentHashMap<>();
+    // The action is "get" for none.
+    final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    // Guarded by itself.
+    final Random random;
+    // Nullable for no authentication.
+    volatile String authorization;
+    volatile int latencyMillis;
+    volatile int jitterMillis;
+    volatile double errorRate;
+    volatile int errorStatus = 503;
+    volatile boolean isCompressing;
+
+    /**
+     * Something to answer for a PatternQuery on the real server, identified
+     * in the same way by its interface and method names.
+     */
+    public interface Query {
+        /**
+         * @param requestContent
+         *            an empty Blob if none was sent.
+         * @param params
+         *            Nullable. The JSON in the params URL parameter.
+         * @return Nullable for no response content.
+         */
+        Blob execute(StubInfinityDBServer server, Blob requestContent, String params)
+                throws IOException;
+    }
+
+    /**
+     * Start serving on the loopback interface. See getUrl().
+     * 
+     * @param seed
+     *            for the injected latency jitter and errors.
+     * @param port
+     *            0 for any free one. Another for a server that comes back
+     *            where a closed one was.
+     */
+    public StubInfinityDBServer(long seed, int port) throws IOException {
+        this.random = new Random(seed);
+        this.httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        // Injected latency must not hold up the other requests.
+        this.executor = FanOut.newCachedExecutor();
+        httpServer.setExecutor(executor);
+        httpServer.createContext(DATABASE_PATH, this::handle);
+        httpServer.start();
+    }
+
+    public StubInfinityDBServer(long seed) throws IOException {
+        this(seed, 0);
+    }
+
+    public StubInfinityDBServer() throws IOException {
+        this(0);
+    }
+
+    // For the clients' constructors.
+    public String getUrl() {
+        return "http://127.0.0.1:" + httpServer.getAddress().getPort() + DATABASE_PATH;
+    }
+
+    // Require Basic authentication with these, or null for none.
+    public void setUserNameAndPassWord(String userName, String passWord) {
+        this.authorization = userName == null ? null
+                : InfinityDBSimpleRestClient.getBasicAuthorization(userName, passWord);
+    }
+
+    /**
+     * Delay each response by latencyMillis plus up to jitterMillis more,
+     * uniformly.
+     */
+    public void setLatency(int latencyMillis, int jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Answer that fraction of requests with the status instead, after the
+     * latency. A 429 or 503 has a Retry-After of 0 seconds.
+     */
+    public void setErrorRate(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    // Gzip responses when the client accepts it.
+    public void setCompressing(boolean isCompressing) {
+        this.isCompressing = isCompressing;
+    }
+
+    public void setQuery(String interfaceName, String methodName, Query query) {
+        queries.put(interfaceName + "/" + methodName, query);
+    }
+
+    public long getRequestCount(String action) {
+        LongAdder count = requestCounts.get(action);
+        return count == null ? 0 : count.sum();
+    }
+
+    public long getRequestCount() {
+        long count = 0;
+        for (LongAdder c : requestCounts.values())
+            count += c.sum();
+        return count;
+    }
+
+    // Add one Item, as a Query might.
+    public void insert(Object... item) {
+        itemSpace.insert(Arrays.asList(item));
+    }
+
+    // Like the write action.
+    public void putBlob(Blob blob, Object... prefix) {
+        itemSpace.write(Arrays.asList(prefix), getBlobSuffixes(blob));
+    }
+
+    // Nullable if there is no Blob on the prefix.
+    public Blob getBlob(Object... prefix) {
+        return toBlob(itemSpace.getSuffixes(Arrays.asList(prefix)));
+    }
+
+    // Like the as-json action.
+    public String getAsJson(Object... prefix) {
+        return toJson(itemSpace.getSuffixes(Arrays.asList(prefix)));
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+
+    void handle(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+            String action = parameters.get("action");
+            requestCounts.computeIfAbsent(action == null ? "get" : action,
+                    a -> new LongAdder()).increment();
+            String authorization = this.authorization;
+            if (authorization != null && !authorization.equals(
+                    exchange.getRequestHeaders().getFirst("Authorization"))) {
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"InfinityDB\"");
+                send(exchange, 401, null);
+                return;
+            }
+            if (injectFaults(exchange))
+                return;
+            List<Object> prefix = getPrefix(exchange.getRequestURI().getRawPath());
+            boolean isPost = exchange.getRequestMethod().equalsIgnoreCase("POST");
+            if (action == null || action.equals("get-blob") || action.equals("as-json")) {
+                if (isPost) {
+                    send(exchange, 405, null);
+                    return;
+                }
+                List<List<Object>> suffixes = itemSpace.getSuffixes(prefix);
+                Blob blob = "as-json".equals(action) ? null : toBlob(suffixes);
+                if (blob == null && "get-blob".equals(action))
+                    send(exchange, 204, null);
+                else if (blob == null)
+                    send(exchange, 200, new Blob(toJson(suffixes), "application/json"));
+                else
+                    send(exchange, 200, blob);
+                return;
+            }
+            if (!isPost) {
+                send(exchange, 405, null);
+                return;
+            }
+            Blob requestContent = readRequestContent(exchange);
+            if (requestContent == null) {
+                send(exchange, 415, null);
+                return;
+            }
+            switch (action) {
+            case "write":
+                itemSpace.write(prefix, getBlobSuffixes(requestContent));
+                send(exchange, 204, null);
+                return;
+            case "append":
+                itemSpace.append(prefix, getBlobSuffixes(requestContent));
+                send(exchange, 204, null);
+                return;
+            case "execute-query":
+            case "execute-get-blob-query":
+            case "execute-put-blob-query":
+                Query query = prefix.size() == 2
+                        ? queries.get(prefix.get(0) + "/" + prefix.get(1)) : null;
+                if (query == null) {
+                    send(exchange, 404, null);
+                    return;
+                }
+                Blob result = query.execute(this, requestContent, parameters.get("params"));
+                // A Blob comes back raw only from a get blob query.
+                if (result != null && !action.equals("execute-get-blob-query")
+                        && !"application/json".equals(result.getContentType()))
+                    result = new Blob(toJson(getBlobSuffixes(result)), "application/json");
+                send(exchange, 200, result);
+                return;
+            default:
+                send(exchange, 400, null);
+            }
+        } catch (RuntimeException e) {
+            // Like an unparseable component in the URL.
+            send(exchange, 400, null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // True if an error was sent.
+    private boolean injectFaults(HttpExchange exchange) throws IOException {
+        int delayMillis;
+        boolean isError;
+        synchronized (random) {
+            delayMillis = latencyMillis
+                    + (jitterMillis > 0 ? random.nextInt(jitterMillis + 1) : 0);
+            isError = errorRate > 0 && random.nextDouble() < errorRate;
+        }
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                // Stopping.
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!isError)
+            return false;
+        int status = errorStatus;
+        if (status == 429 || status == 503)
+            exchange.getResponseHeaders().add("Retry-After", "0");
+        send(exchange, status, null);
+        return true;
+    }
+
+    // Null if the Content-Encoding is not one we take.
+    private static Blob readRequestContent(HttpExchange exchange) throws IOException {
+        String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        InputStream in;
+        try {
+            in = ContentEncoding.decode(exchange.getRequestBody(), contentEncoding, null);
+        } catch (IOException e) {
+            return null;
+        }
+        return new Blob(in.readAllBytes(),
+                contentType == null ? "application/octet-stream" : contentType);
+    }
+
+    private void send(HttpExchange exchange, int status, Blob blob) throws IOException {
+        // Drain anything unread, or the connection can't be kept alive.
+        exchange.getRequestBody().readAllBytes();
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean isGzipping = isCompressing && acceptEncoding != null
+                && acceptEncoding.contains("gzip");
+        if (blob == null || blob.length() == 0) {
+            if (blob != null)
+                exchange.getResponseHeaders().add("Content-Type", blob.getContentType());
+            // As some servers do, even with nothing to compress.
+            if (isGzipping)
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] data = blob.data;
+        if (isGzipping) {
+            data = ContentEncoding.gzip(data);
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", blob.getContentType());
+        exchange.sendResponseHeaders(status, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+    static Map<String, String> getParameters(String rawQuery) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null)
+            return parameters;
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(parameter.substring(0, equals),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    // The components after the database path, as getQuotedUrl() made them.
+    static List<Object> getPrefix(String rawPath) throws IOException {
+        List<Object> prefix = new ArrayList<>();
+        for (String quoted : rawPath.substring(DATABASE_PATH.length()).split("/")) {
+            if (quoted.isEmpty())
+                continue;
+            String token = URLDecoder.decode(quoted, "UTF-8");
+            Object component = token.startsWith("[")
+                    ? new IdbIndex(token) : JsonParser.unQuote(token, false);
+            if (component == null)
+                throw new RuntimeException("Null component in URL: " + rawPath);
+            prefix.add(component);
+        }
+        return prefix;
+    }
+
+    // How a Blob is stored, under the prefix.
+    static List<List<Object>> getBlobSuffixes(Blob blob) {
+        List<List<Object>> suffixes = new ArrayList<>();
+        for (int i = 0, off = 0; off < blob.length(); i++, off += BLOB_CHUNK_SIZE) {
+            byte[] chunk = Arrays.copyOfRange(blob.data, off,
+                    Math.min(blob.length(), off + BLOB_CHUNK_SIZE));
+            suffixes.add(Arrays.asList(BLOB, BLOB_BYTES, new IdbIndex(i),
+                    new IdbByteArray(chunk)));
+        }
+        suffixes.add(Arrays.asList(BLOB, BLOB_MIME_TYPE, blob.getContentType()));
+        return suffixes;
+    }
+
+    // Nullable if there is no Blob in the suffixes.
+    static Blob toBlob(List<List<Object>> suffixes) {
+        String contentType = null;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (List<Object> suffix : suffixes) {
+            if (suffix.size() != 3 && suffix.size() != 4 || !BLOB.equals(suffix.get(0)))
+                continue;
+            if (BLOB_MIME_TYPE.equals(suffix.get(1)) && suffix.get(2) instanceof String)
+                contentType = (String)suffix.get(2);
+            else if (BLOB_BYTES.equals(suffix.get(1)) && suffix.size() == 4
+                    && suffix.get(3) instanceof IdbByteArray)
+                data.writeBytes(((IdbByteArray)suffix.get(3)).bytes);
+        }
+        return contentType == null ? null : new Blob(data.toByteArray(), contentType);
+    }
+
+    /**
+     * The suffixes as underscore-quoted JSON, in order. A run of Indexes is
+     * a list, and a component followed by a single last component is
+     * written compactly as a key and value.
+     */
+    static String toJson(List<List<Object>> suffixes) {
+        StringBuilder sb = new StringBuilder();
+        writeJson(sb, suffixes, 0, suffixes.size(), 0);
+        return sb.toString();
+    }
+
+    // The suffixes from..to all have the same components before depth.
+    private static void writeJson(StringBuilder sb, List<List<Object>> suffixes,
+            int from, int to, int depth) {
+        // The suffix that ends here, if any, sorts first.
+        while (from < to && suffixes.get(from).size() == depth)
+            from++;
+        boolean isList = from < to && suffixes.get(from).get(depth) instanceof IdbIndex;
+        sb.append(isList ? '[' : '{');
+        for (int i = from; i < to;) {
+            Object component = suffixes.get(i).get(depth);
+            int end = i + 1;
+            while (end < to && ItemSpace.compareComponents(
+                    suffixes.get(end).get(depth), component) == 0)
+                end++;
+            if (i > from)
+                sb.append(", ");
+            if (!isList)
+                sb.append(JsonParser.convertToJsonString(
+                        JsonParser.qKeyUnderscoreQuoting(component))).append(" : ");
+            if (end == i + 1 && suffixes.get(i).size() == depth + 1)
+                sb.append("null");
+            else if (end == i + 1 && suffixes.get(i).size() == depth + 2
+                    && !(suffixes.get(i).get(depth + 1) instanceof IdbIndex))
+                sb.append(toJsonValue(suffixes.get(i).get(depth + 1)));
+            else
+                writeJson(sb, suffixes, i, end, depth + 1);
+            i = end;
+        }
+        sb.append(isList ? ']' : '}');
+    }
+
+    // As JsonElement writes a value.
+    static String toJsonValue(Object component) {
+        Object q = JsonParser.qValue(component, true);
+        return q instanceof String ? JsonParser.convertToJsonString((String)q) : q.toString();
+    }
+
+    /**
+     * The Items, each a List of components, sorted. Writes lock out reads,
+     * so each request sees all of a write or none of it.
+     */
+    static class ItemSpace {
+        final TreeSet<List<Object>> items = new TreeSet<>(ItemSpace::compareItems);
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        void insert(List<Object> item) {
+            lock.writeLock().lock();
+            try {
+                items.add(new ArrayList<>(item));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Replace everything under the prefix.
+        void write(List<Object> prefix, List<List<Object>> suffixes) {
+            lock.writeLock().lock();
+            try {
+                for (List<Object> item : getSuffixesLocked(prefix, true))
+                    items.remove(item);
+                insertAllLocked(prefix, suffixes);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Under the prefix and the next Index after the last one there.
+        void append(List<Object> prefix, List<List<Object>> suffixes) {
+            lock.writeLock().lock();
+            try {
+                long nextIndex = 0;
+                for (List<Object> suffix : getSuffixesLocked(prefix, false)) {
+                    if (suffix.size() > 0 && suffix.get(0) instanceof IdbIndex)
+                        nextIndex = Math.max(nextIndex, ((IdbIndex)suffix.get(0)).getIndex() + 1);
+                }
+                List<Object> indexed = new ArrayList<>(prefix);
+                indexed.add(new IdbIndex(nextIndex));
+                insertAllLocked(indexed, suffixes);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // In order.
+        List<List<Object>> getSuffixes(List<Object> prefix) {
+            lock.readLock().lock();
+            try {
+                return getSuffixesLocked(prefix, false);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void insertAllLocked(List<Object> prefix, List<List<Object>> suffixes) {
+            for (List<Object> suffix : suffixes) {
+                List<Object> item = new ArrayList<>(prefix);
+                item.addAll(suffix);
+                items.add(item);
+            }
+        }
+
+        // The whole Items rather than the suffixes if isWhole.
+        private List<List<Object>> getSuffixesLocked(List<Object> prefix, boolean isWhole) {
+            List<List<Object>> suffixes = new ArrayList<>();
+            for (List<Object> item : items.tailSet(prefix, true)) {
+                if (item.size() < prefix.size()
+                        || compareItems(item.subList(0, prefix.size()), prefix) != 0)
+                    break;
+                suffixes.add(isWhole ? item : item.subList(prefix.size(), item.size()));
+            }
+            return suffixes;
+        }
+
+        static int compareItems(List<Object> item0, List<Object> item1) {
+            int n = Math.min(item0.size(), item1.size());
+            for (int i = 0; i < n; i++) {
+                int c = compareComponents(item0.get(i), item1.get(i));
+                if (c != 0)
+                    return c;
+            }
+            return Integer.compare(item0.size(), item1.size());
+        }
+
+        static int compareComponents(Object o0, Object o1) {
+            int c = Integer.compare(getTypeOrder(o0), getTypeOrder(o1));
+            if (c != 0)
+                return c;
+            if (o0 instanceof IdbIndex)
+                return Long.compare(((IdbIndex)o0).getIndex(), ((IdbIndex)o1).getIndex());
+            // The type orders match, so o1 is the same type here.
+            if (o0 instanceof String)
+                return ((String)o0).compareTo((String)o1);
+            if (o0 instanceof Boolean)
+                return ((Boolean)o0).compareTo((Boolean)o1);
+            if (o0 instanceof Double)
+                return ((Double)o0).compareTo((Double)o1);
+            if (o0 instanceof Float)
+                return ((Float)o0).compareTo((Float)o1);
+            if (o0 instanceof Long)
+                return ((Long)o0).compareTo((Long)o1);
+            if (o0 instanceof Date)
+                return ((Date)o0).compareTo((Date)o1);
+            return o0.toString().compareTo(o1.toString());
+        }
+
+        static int getTypeOrder(Object o) {
+            return o instanceof IdbClass ? 0
+                    : o instanceof IdbAttribute ? 1
+                    : o instanceof String ? 2
+                    : o instanceof Boolean ? 3
+                    : o instanceof Double ? 4
+                    : o instanceof Float ? 5
+                    : o instanceof Long ? 6
+                    : o instanceof Date ? 7
+                    : o instanceof IdbIndex ? 9
+                    : 8;
+        }
+    }
+}